@@ -0,0 +1,36 @@
+package com.googlecode.transloader.benchmark;
+
+import java.io.Serializable;
+
+/**
+ * A typical primitive-heavy value object.
+ */
+public class Bean implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private boolean active;
+	private byte flags;
+	private char grade;
+	private short rank;
+	private int id;
+	private long timestamp;
+	private float ratio;
+	private double amount;
+	private String name;
+
+	public Bean(int id) {
+		this.id = id;
+		active = id % 2 == 0;
+		flags = (byte) id;
+		grade = (char) ('A' + id % 26);
+		rank = (short) (id % 1000);
+		timestamp = 1000000000000L + id;
+		ratio = id / 7f;
+		amount = id * 3.25;
+		name = "bean-" + id;
+	}
+
+	public int getId() {
+		return id;
+	}
+}
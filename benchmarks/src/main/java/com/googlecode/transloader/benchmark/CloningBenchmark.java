@@ -0,0 +1,54 @@
+package com.googlecode.transloader.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.transloader.clone.CloningStrategy;
+
+/**
+ * Measures cloning each representative graph into {@link IsolatedClassLoader} with each strategy. Run with
+ * <code>-prof gc</code> to see the allocation per clone as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloningBenchmark {
+	@Param
+	public Strategies strategy;
+
+	@Param({"PRIMITIVE_BEAN", "DEEP_LIST", "WIDE_MAP", "BIG_ARRAY", "CYCLIC_GRAPH"})
+	public Graphs graph;
+
+	@Param({"1000"})
+	public int size;
+
+	private CloningStrategy cloner;
+	private Object original;
+	private ClassLoader targetClassLoader;
+
+	@Setup
+	public void setUp() {
+		cloner = strategy.get();
+		original = graph.create(size);
+		targetClassLoader = IsolatedClassLoader.getInstance();
+	}
+
+	@Benchmark
+	public Object cloneToOtherClassLoader() throws Exception {
+		return cloner.cloneObjectUsingClassLoader(original, targetClassLoader);
+	}
+}
@@ -0,0 +1,49 @@
+package com.googlecode.transloader.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.transloader.clone.CloningStrategy;
+
+/**
+ * Measures cloning linear chains of increasing depth into {@link IsolatedClassLoader}, including depths that cannot be
+ * traversed recursively. Serialization is left out because it does recurse and so overflows the stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeepGraphBenchmark {
+	@Param({"MINIMAL", "MAXIMAL"})
+	public Strategies strategy;
+
+	@Param({"1000", "10000", "100000"})
+	public int depth;
+
+	private CloningStrategy cloner;
+	private Object original;
+
+	@Setup
+	public void setUp() {
+		cloner = strategy.get();
+		original = Graphs.DEEP_CHAIN.create(depth);
+	}
+
+	@Benchmark
+	public Object cloneDeepChain() throws Exception {
+		return cloner.cloneObjectUsingClassLoader(original, IsolatedClassLoader.getInstance());
+	}
+}
@@ -0,0 +1,150 @@
+package com.googlecode.transloader.benchmark;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ClassUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.transloader.clone.reflect.FieldDescription;
+import com.googlecode.transloader.clone.reflect.FieldReflector;
+
+/**
+ * Measures copying every field of one object onto another through {@link FieldReflector}, for class hierarchies of
+ * different depths declaring different numbers of fields, against looking up the declaring <code>Class</code> by name,
+ * finding the <code>Field</code> in it and making it accessible afresh for every field read and written, which is how
+ * it used to be done.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldCopyBenchmark {
+	/** The number of classes in the hierarchy of the object copied, not counting <code>Object</code>. */
+	@Param({"1", "2", "4", "8"})
+	public int depth;
+
+	/** The number of fields declared by each class in the hierarchy. */
+	@Param({"1", "8"})
+	public int fieldCount;
+
+	private Object original;
+	private Object copy;
+	private FieldDescription[] descriptions;
+	private ClassLoader classLoader;
+
+	@Setup
+	public void setUp() throws Exception {
+		String family = fieldCount == 1 ? "Narrow" : "Wide";
+		Class<?> type = Class.forName(FieldCopyBenchmark.class.getName() + "$" + family + depth);
+		original = type.newInstance();
+		copy = type.newInstance();
+		descriptions = new FieldReflector(original).getAllInstanceFieldDescriptions();
+		if (descriptions.length != depth * fieldCount) {
+			throw new IllegalStateException("Expecting " + depth * fieldCount + " fields in " + type + ".");
+		}
+		classLoader = type.getClassLoader();
+	}
+
+	@Benchmark
+	public Object cached() throws Exception {
+		FieldReflector from = new FieldReflector(original);
+		FieldReflector to = new FieldReflector(copy);
+		for (int i = 0; i < descriptions.length; i++) {
+			to.setValue(descriptions[i], from.getValue(descriptions[i]));
+		}
+		return copy;
+	}
+
+	@Benchmark
+	public Object uncached() throws Exception {
+		for (int i = 0; i < descriptions.length; i++) {
+			Object value = getFieldHavingMadeItAccessible(descriptions[i]).get(original);
+			getFieldHavingMadeItAccessible(descriptions[i]).set(copy, value);
+		}
+		return copy;
+	}
+
+	private Field getFieldHavingMadeItAccessible(FieldDescription description) throws Exception {
+		Class<?> declaringClass = ClassUtils.getClass(classLoader, description.getDeclaringClassName(), false);
+		Field field = declaringClass.getDeclaredField(description.getFieldName());
+		field.setAccessible(true);
+		return field;
+	}
+
+	public static class Narrow1 {
+		int a = 1;
+	}
+
+	public static class Narrow2 extends Narrow1 {
+		int a = 2;
+	}
+
+	public static class Narrow3 extends Narrow2 {
+		int a = 3;
+	}
+
+	public static class Narrow4 extends Narrow3 {
+		int a = 4;
+	}
+
+	public static class Narrow5 extends Narrow4 {
+		int a = 5;
+	}
+
+	public static class Narrow6 extends Narrow5 {
+		int a = 6;
+	}
+
+	public static class Narrow7 extends Narrow6 {
+		int a = 7;
+	}
+
+	public static class Narrow8 extends Narrow7 {
+		int a = 8;
+	}
+
+	public static class Wide1 {
+		int a = 1, b, c, d, e, f, g, h;
+	}
+
+	public static class Wide2 extends Wide1 {
+		int a = 2, b, c, d, e, f, g, h;
+	}
+
+	public static class Wide3 extends Wide2 {
+		int a = 3, b, c, d, e, f, g, h;
+	}
+
+	public static class Wide4 extends Wide3 {
+		int a = 4, b, c, d, e, f, g, h;
+	}
+
+	public static class Wide5 extends Wide4 {
+		int a = 5, b, c, d, e, f, g, h;
+	}
+
+	public static class Wide6 extends Wide5 {
+		int a = 6, b, c, d, e, f, g, h;
+	}
+
+	public static class Wide7 extends Wide6 {
+		int a = 7, b, c, d, e, f, g, h;
+	}
+
+	public static class Wide8 extends Wide7 {
+		int a = 8, b, c, d, e, f, g, h;
+	}
+}
@@ -0,0 +1,82 @@
+package com.googlecode.transloader.benchmark;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The representative object graphs transloaded by the benchmarks.
+ */
+public enum Graphs {
+	/** A single primitive-heavy bean, the smallest realistic graph. */
+	PRIMITIVE_BEAN {
+		public Object create(int size) {
+			return new Bean(size);
+		}
+	},
+	/** A <code>LinkedList</code> of beans, which is as deep as it is long. */
+	DEEP_LIST {
+		public Object create(int size) {
+			List<Bean> list = new LinkedList<Bean>();
+			for (int i = 0; i < size; i++) {
+				list.add(new Bean(i));
+			}
+			return list;
+		}
+	},
+	/** A <code>HashMap</code> of beans keyed by name, which is shallow but wide. */
+	WIDE_MAP {
+		public Object create(int size) {
+			Map<String, Bean> map = new HashMap<String, Bean>();
+			for (int i = 0; i < size; i++) {
+				map.put("key-" + i, new Bean(i));
+			}
+			return map;
+		}
+	},
+	/** An array of primitives alongside an array of beans. */
+	BIG_ARRAY {
+		public Object create(int size) {
+			long[] longs = new long[size * 100];
+			for (int i = 0; i < longs.length; i++) {
+				longs[i] = i;
+			}
+			Bean[] beans = new Bean[size];
+			for (int i = 0; i < size; i++) {
+				beans[i] = new Bean(i);
+			}
+			return new Object[] {longs, beans};
+		}
+	},
+	/** A ring of nodes, each also linked to another node at random. */
+	CYCLIC_GRAPH {
+		public Object create(int size) {
+			Node[] nodes = new Node[size];
+			for (int i = 0; i < size; i++) {
+				nodes[i] = new Node(i);
+			}
+			Random random = new Random(size);
+			for (int i = 0; i < size; i++) {
+				nodes[i].setNext(nodes[(i + 1) % size]);
+				nodes[i].setLink(nodes[random.nextInt(size)]);
+			}
+			return nodes[0];
+		}
+	},
+	/** A chain of nodes, linear and as deep as it is long. */
+	DEEP_CHAIN {
+		public Object create(int size) {
+			Node first = null;
+			for (int i = size - 1; i >= 0; i--) {
+				Node node = new Node(i);
+				node.setNext(first);
+				first = node;
+			}
+			return first;
+		}
+	};
+
+	public abstract Object create(int size);
+}
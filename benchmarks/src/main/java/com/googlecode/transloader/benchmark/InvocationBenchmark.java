@@ -0,0 +1,155 @@
+package com.googlecode.transloader.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ClassUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.transloader.DefaultTransloader;
+import com.googlecode.transloader.InvocationDescription;
+import com.googlecode.transloader.ObjectWrapper;
+import com.googlecode.transloader.clone.CloningStrategy;
+
+/**
+ * Measures calling a {@link SimpleService} loaded by {@link IsolatedClassLoader}, both through
+ * {@link ObjectWrapper#invoke(InvocationDescription)} and through a proxy made by
+ * {@link ObjectWrapper#makeCastableTo(Class)}, with primitive parameters and with a bean that has to be cloned. Calls
+ * made directly on a {@link SimpleService} from the same <code>ClassLoader</code> give the baseline that the proxy's
+ * dispatch overhead is measured against, and calls through a plain {@link Proxy} whose <code>InvocationHandler</code>
+ * loads the parameter types by name, finds the <code>Method</code> and clones the parameters afresh for every call
+ * show how proxies used to dispatch. The proxies made by {@link ObjectWrapper#makeCastableTo(Class)} are generated
+ * ones, since ASM is on the class path, except in the <code>reflectProxy</code> benchmarks, which run with proxy
+ * generation turned off so that they use a {@link Proxy} instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvocationBenchmark {
+	@Param({"MINIMAL", "MAXIMAL"})
+	public Strategies strategy;
+
+	private ObjectWrapper wrapper;
+	private Service proxy;
+	private Service direct;
+	private Service uncachedProxy;
+	private Bean bean;
+	private InvocationDescription addDescription;
+	private InvocationDescription identifyDescription;
+
+	@Setup
+	public void setUp() throws Exception {
+		Object service = IsolatedClassLoader.getInstance().loadClass(SimpleService.class.getName()).newInstance();
+		wrapper = new DefaultTransloader(strategy.get()).wrap(service);
+		proxy = (Service) wrapper.makeCastableTo(Service.class);
+		direct = new SimpleService();
+		uncachedProxy =
+				(Service) Proxy.newProxyInstance(Service.class.getClassLoader(), new Class<?>[] {Service.class},
+						new UncachedInvoker(service, strategy.get()));
+		bean = new Bean(42);
+		addDescription = new InvocationDescription("add", new Class[] {Integer.TYPE, Integer.TYPE}, new Object[] {
+				new Integer(1), new Integer(2)});
+		identifyDescription = new InvocationDescription("identify", Bean.class, bean);
+	}
+
+	@Benchmark
+	public Object invokePrimitives() {
+		return wrapper.invoke(addDescription);
+	}
+
+	@Benchmark
+	public Object invokeWithBean() {
+		return wrapper.invoke(identifyDescription);
+	}
+
+	@Benchmark
+	public int proxyPrimitives() {
+		return proxy.add(1, 2);
+	}
+
+	@Benchmark
+	public int proxyWithBean() {
+		return proxy.identify(bean);
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-Dcom.googlecode.transloader.generateProxies=false")
+	public int reflectProxyPrimitives() {
+		return proxy.add(1, 2);
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-Dcom.googlecode.transloader.generateProxies=false")
+	public int reflectProxyWithBean() {
+		return proxy.identify(bean);
+	}
+
+	@Benchmark
+	public int uncachedProxyPrimitives() {
+		return uncachedProxy.add(1, 2);
+	}
+
+	@Benchmark
+	public int uncachedProxyWithBean() {
+		return uncachedProxy.identify(bean);
+	}
+
+	@Benchmark
+	public int directPrimitives() {
+		return direct.add(1, 2);
+	}
+
+	@Benchmark
+	public int directWithBean() {
+		return direct.identify(bean);
+	}
+
+	@Benchmark
+	public Object makeCastableTo() {
+		return wrapper.makeCastableTo(Service.class);
+	}
+
+	/**
+	 * Calls through to an object the way proxies made by {@link ObjectWrapper#makeCastableTo(Class)} used to, by
+	 * describing each call and then looking everything it needs up again.
+	 */
+	private static final class UncachedInvoker implements InvocationHandler {
+		private final Object target;
+		private final CloningStrategy cloner;
+
+		UncachedInvoker(Object target, CloningStrategy cloner) {
+			this.target = target;
+			this.cloner = cloner;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] parameters) throws Throwable {
+			InvocationDescription description = new InvocationDescription(method, parameters);
+			Class<?> targetClass = target.getClass();
+			ClassLoader targetClassLoader = targetClass.getClassLoader();
+			String[] parameterTypeNames = description.getParameterTypeNames();
+			Class<?>[] parameterTypes = new Class<?>[parameterTypeNames.length];
+			for (int i = 0; i < parameterTypes.length; i++) {
+				parameterTypes[i] = ClassUtils.getClass(targetClassLoader, parameterTypeNames[i], false);
+			}
+			Object[] clonedParameters =
+					(Object[]) cloner.cloneObjectUsingClassLoader(description.getParameters(), targetClassLoader);
+			return targetClass.getMethod(description.getMethodName(), parameterTypes).invoke(target, clonedParameters);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.googlecode.transloader.benchmark;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Loads everything on the class path again, independently of the <code>ClassLoader</code> that loaded the benchmarks,
+ * so that every object graph a benchmark transloads really does cross from one <code>ClassLoader</code> to another.
+ */
+public final class IsolatedClassLoader extends URLClassLoader {
+	private static final ClassLoader INSTANCE = new IsolatedClassLoader();
+
+	public static ClassLoader getInstance() {
+		return INSTANCE;
+	}
+
+	private IsolatedClassLoader() {
+		super(getClassPathUrls(), null);
+	}
+
+	private static URL[] getClassPathUrls() {
+		String[] paths = System.getProperty("java.class.path").split(File.pathSeparator);
+		URL[] urls = new URL[paths.length];
+		try {
+			for (int i = 0; i < paths.length; i++) {
+				urls[i] = new File(paths[i]).toURI().toURL();
+			}
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+		return urls;
+	}
+}
@@ -0,0 +1,28 @@
+package com.googlecode.transloader.benchmark;
+
+import java.io.Serializable;
+
+/**
+ * A node in a linked structure, which can be linear, cyclic or cross-linked.
+ */
+public class Node implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private int index;
+	private double weight;
+	private Node next;
+	private Node link;
+
+	public Node(int index) {
+		this.index = index;
+		weight = index * 0.5;
+	}
+
+	public void setNext(Node next) {
+		this.next = next;
+	}
+
+	public void setLink(Node link) {
+		this.link = link;
+	}
+}
@@ -0,0 +1,10 @@
+package com.googlecode.transloader.benchmark;
+
+/**
+ * The interface through which benchmarks call an object loaded by {@link IsolatedClassLoader}.
+ */
+public interface Service {
+	int add(int first, int second);
+
+	int identify(Bean bean);
+}
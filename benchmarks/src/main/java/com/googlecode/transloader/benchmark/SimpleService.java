@@ -0,0 +1,11 @@
+package com.googlecode.transloader.benchmark;
+
+public class SimpleService implements Service {
+	public int add(int first, int second) {
+		return first + second;
+	}
+
+	public int identify(Bean bean) {
+		return bean.getId();
+	}
+}
@@ -0,0 +1,63 @@
+package com.googlecode.transloader.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.transloader.clone.reflect.BinaryCloningStrategy;
+import com.googlecode.transloader.clone.reflect.GraphSnapshot;
+
+/**
+ * Measures materializing a {@link GraphSnapshot} taken once of each representative graph into
+ * {@link IsolatedClassLoader}, which is what each <code>ClassLoader</code> costs when the same graph is cloned into
+ * many, against cloning the original graph afresh with each strategy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+	@Param({"PRIMITIVE_BEAN", "CYCLIC_GRAPH", "DEEP_CHAIN"})
+	public Graphs graph;
+
+	@Param({"1000"})
+	public int size;
+
+	private Object original;
+	private GraphSnapshot snapshot;
+	private ClassLoader targetClassLoader;
+
+	@Setup
+	public void setUp() throws Exception {
+		original = graph.create(size);
+		snapshot = ((BinaryCloningStrategy) Strategies.BINARY.get()).snapshot(original);
+		targetClassLoader = IsolatedClassLoader.getInstance();
+	}
+
+	@Benchmark
+	public Object materializeSnapshot() throws Exception {
+		return snapshot.materializeUsingClassLoader(targetClassLoader);
+	}
+
+	@Benchmark
+	public Object cloneWithBinary() throws Exception {
+		return Strategies.BINARY.get().cloneObjectUsingClassLoader(original, targetClassLoader);
+	}
+
+	@Benchmark
+	public Object cloneWithMaximal() throws Exception {
+		return Strategies.MAXIMAL.get().cloneObjectUsingClassLoader(original, targetClassLoader);
+	}
+}
@@ -0,0 +1,27 @@
+package com.googlecode.transloader.benchmark;
+
+import com.googlecode.transloader.clone.CloningStrategy;
+import com.googlecode.transloader.clone.SerializationCloningStrategy;
+import com.googlecode.transloader.clone.reflect.BinaryCloningStrategy;
+import com.googlecode.transloader.clone.reflect.ObjenesisInstantiationStrategy;
+
+/**
+ * The <code>CloningStrategy</code>s compared by the benchmarks.
+ */
+public enum Strategies {
+	MINIMAL(CloningStrategy.MINIMAL),
+	MAXIMAL(CloningStrategy.MAXIMAL),
+	SERIALIZATION(new SerializationCloningStrategy()),
+	STREAMING_SERIALIZATION(new SerializationCloningStrategy(64 * 1024)),
+	BINARY(new BinaryCloningStrategy(new ObjenesisInstantiationStrategy(), new SerializationCloningStrategy()));
+
+	private final CloningStrategy strategy;
+
+	Strategies(CloningStrategy strategy) {
+		this.strategy = strategy;
+	}
+
+	public CloningStrategy get() {
+		return strategy;
+	}
+}
@@ -0,0 +1,61 @@
+package com.googlecode.transloader.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ClassUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.transloader.ObjectWrapper;
+import com.googlecode.transloader.Transloader;
+
+/**
+ * Measures {@link ObjectWrapper#isInstanceOf(String)} on a {@link SimpleService} loaded by
+ * {@link IsolatedClassLoader}, against gathering the names of all the types it is assignable to afresh for every check,
+ * which is how it used to be done.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeCheckBenchmark {
+	@Param({"com.googlecode.transloader.benchmark.Service", "java.lang.Runnable"})
+	public String typeName;
+
+	private Object service;
+	private ObjectWrapper wrapper;
+
+	@Setup
+	public void setUp() throws Exception {
+		service = IsolatedClassLoader.getInstance().loadClass(SimpleService.class.getName()).newInstance();
+		wrapper = Transloader.DEFAULT.wrap(service);
+	}
+
+	@Benchmark
+	public boolean cached() {
+		return wrapper.isInstanceOf(typeName);
+	}
+
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public boolean uncached() {
+		List<Class<?>> allClasses = new ArrayList<Class<?>>();
+		allClasses.add(service.getClass());
+		allClasses.addAll(ClassUtils.getAllSuperclasses(service.getClass()));
+		allClasses.addAll(ClassUtils.getAllInterfaces(service.getClass()));
+		return ClassUtils.convertClassesToClassNames(allClasses).contains(typeName);
+	}
+}
@@ -55,10 +55,12 @@ public final class Assert {
 	 * Asserts that the given parameters are not <code>null</code>.
 	 * 
 	 * @param parameters the parameters to check
-	 * @throws IllegalArgumentException if any elements of <code>parameters</code> are <code>null</code>
+	 * @throws IllegalArgumentException if <code>parameters</code> itself or any of its elements are
+	 *             <code>null</code>
 	 */
 	public static void areNotNull(Object[] parameters) {
-		if (parameters == null) throw newNullParameterException(parameters);
+		// a null array is reported just as the single null parameter it is, in the same way as by isNotNull(Object)
+		if (parameters == null) throw newNullParameterException(Arrays.asList(new Object[] {null}));
 		List parameterList = Arrays.asList(parameters);
 		if (parameterList.contains(null)) throw newNullParameterException(parameterList);
 	}
@@ -1,8 +1,16 @@
 package com.googlecode.transloader;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.collections.map.AbstractReferenceMap;
+import org.apache.commons.collections.map.ReferenceIdentityMap;
 import org.apache.commons.lang.ClassUtils;
 
 /**
@@ -12,6 +20,15 @@ import org.apache.commons.lang.ClassUtils;
  * @author Jeremy Wales
  */
 public final class ClassWrapper {
+	// Classes are only weakly referenced, so they can still be garbage collected, but the names of the types they are
+	// assignable to are held on to, as they reference no Classes and never change
+	private static final Map ASSIGNABLE_TYPE_NAMES_BY_CLASS =
+			new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.HARD);
+	// ClassLoaders are only weakly referenced and so are the Classes found by name in them, so nothing is ever kept
+	// from being garbage collected, whereas names that could not be found are remembered with the message saying why
+	private static final Map CLASSES_BY_CLASS_LOADER =
+			new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.HARD);
+
 	private final Class wrappedClass;
 
 	/**
@@ -57,7 +74,9 @@ public final class ClassWrapper {
 	}
 
 	/**
-	 * Loads the <code>Class</code> with the given name from the given <code>ClassLoader</code>.
+	 * Loads the <code>Class</code> with the given name from the given <code>ClassLoader</code>. Each name is only
+	 * looked up in each <code>ClassLoader</code> once, after which the <code>Class</code> found, or the fact that none
+	 * was, is remembered for as long as both the <code>ClassLoader</code> and the <code>Class</code> are around.
 	 * 
 	 * @param className the name of the <code>Class</code>
 	 * @param classLoader the <code>ClassLoader</code> with which to load it
@@ -66,12 +85,31 @@ public final class ClassWrapper {
 	 */
 	public static Class getClass(String className, ClassLoader classLoader) {
 		Assert.areNotNull(className, classLoader);
+		Map classesByName;
+		Object found;
+		synchronized (CLASSES_BY_CLASS_LOADER) {
+			classesByName = (Map) CLASSES_BY_CLASS_LOADER.get(classLoader);
+			if (classesByName == null) CLASSES_BY_CLASS_LOADER.put(classLoader, classesByName = new HashMap());
+			found = classesByName.get(className);
+		}
+		if (found instanceof WeakReference) found = ((WeakReference) found).get();
+		if (found == null) {
+			found = findClass(className, classLoader);
+			synchronized (CLASSES_BY_CLASS_LOADER) {
+				classesByName.put(className, found instanceof Class ? new WeakReference(found) : found);
+			}
+		}
+		if (found instanceof Class) return (Class) found;
+		// a fresh exception each time, so that no stack trace, and nothing on it, is held on to
+		throw new TransloaderException("Unable to load Class '" + className + "' from ClassLoader '" + classLoader
+				+ "'.", new ClassNotFoundException((String) found));
+	}
+
+	private static Object findClass(String className, ClassLoader classLoader) {
 		try {
 			return ClassUtils.getClass(classLoader, className, false);
 		} catch (ClassNotFoundException e) {
-			// TODO test ClassNotFoundException
-			throw new TransloaderException(
-					"Unable to load Class '" + className + "' from ClassLoader '" + classLoader + "'.", e);
+			return e.getMessage() == null ? className : e.getMessage();
 		}
 	}
 
@@ -93,11 +131,29 @@ public final class ClassWrapper {
 		return classes;
 	}
 
-	private static boolean classIsAssignableToType(Class rootClass, String typeName) {
+	/**
+	 * Checks against the names of all the types the given <code>Class</code> is assignable to, which are only
+	 * gathered the first time any <code>Class</code> is checked and then kept in a <code>Set</code>.
+	 */
+	static boolean classIsAssignableToType(Class rootClass, String typeName) {
+		Set assignableTypeNames;
+		synchronized (ASSIGNABLE_TYPE_NAMES_BY_CLASS) {
+			assignableTypeNames = (Set) ASSIGNABLE_TYPE_NAMES_BY_CLASS.get(rootClass);
+		}
+		if (assignableTypeNames == null) {
+			assignableTypeNames = getAssignableTypeNames(rootClass);
+			synchronized (ASSIGNABLE_TYPE_NAMES_BY_CLASS) {
+				ASSIGNABLE_TYPE_NAMES_BY_CLASS.put(rootClass, assignableTypeNames);
+			}
+		}
+		return assignableTypeNames.contains(typeName);
+	}
+
+	private static Set getAssignableTypeNames(Class rootClass) {
 		List allClasses = new ArrayList();
 		allClasses.add(rootClass);
 		allClasses.addAll(ClassUtils.getAllSuperclasses(rootClass));
 		allClasses.addAll(ClassUtils.getAllInterfaces(rootClass));
-		return ClassUtils.convertClassesToClassNames(allClasses).contains(typeName);
+		return Collections.unmodifiableSet(new HashSet(ClassUtils.convertClassesToClassNames(allClasses)));
 	}
 }
@@ -0,0 +1,143 @@
+package com.googlecode.transloader;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.collections.map.AbstractReferenceMap;
+import org.apache.commons.collections.map.ReferenceIdentityMap;
+
+/**
+ * A <code>ClassLoader</code> which loads <code>Class</code>es from whichever of a collection of other
+ * <code>ClassLoader</code>s can load them first, remembering which <code>Class</code> it got for each name. It only
+ * ever collects the <code>ClassLoader</code> of an <code>interface</code> together with Transloader's own, not the
+ * <code>ClassLoader</code>s of the objects proxies call through to, as those never need to be visible to the proxy
+ * <code>Class</code>es.
+ * <p>
+ * It also makes {@link Proxy} instances. Their <code>Class</code>es are defined by the <code>interface</code>'s own
+ * <code>ClassLoader</code> whenever that can see Transloader's <code>Class</code>es, and always for
+ * <code>interface</code>s which are not <code>public</code>, since only a proxy <code>Class</code> in the same
+ * package of the same <code>ClassLoader</code> can implement those. Otherwise this <code>ClassLoader</code> defines
+ * them itself, so that a proxy can implement an <code>interface</code> from any of the collected
+ * <code>ClassLoader</code>s. The constructor of the proxy <code>Class</code> for each <code>interface</code> is only
+ * looked up once.
+ * </p>
+ */
+final class CollectedClassLoader extends ClassLoader {
+	private static final Class[] INVOCATION_HANDLER_TYPE = {InvocationHandler.class};
+	private static final ClassLoader OWN_CLASS_LOADER = CollectedClassLoader.class.getClassLoader();
+	// ClassLoaders are only weakly referenced and what is collected with them only softly, but what is collected
+	// references the ClassLoader it is collected for, so caching it delays the unloading of that ClassLoader until the
+	// garbage collector clears the soft references, which it only guarantees to do before running out of memory
+	private static final Map COLLECTED_BY_CLASS_LOADER =
+			new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.SOFT);
+	private static CollectedClassLoader collectedForBootstrap;
+
+	private final ClassLoader[] classLoaders;
+	private final ClassLoader interfaceClassLoader;
+	private final boolean interfaceClassLoaderSeesTransloader;
+	private final Map classesByName = new HashMap();
+	private final Map proxyConstructorsByInterface = new HashMap();
+
+	private CollectedClassLoader(ClassLoader[] classLoaders, ClassLoader interfaceClassLoader) {
+		// the bootstrap ClassLoader is the parent, so that the core Classes are never loaded from anywhere else
+		super(null);
+		this.classLoaders = classLoaders;
+		this.interfaceClassLoader = interfaceClassLoader;
+		interfaceClassLoaderSeesTransloader = canSeeTransloader(interfaceClassLoader);
+	}
+
+	private static boolean canSeeTransloader(ClassLoader classLoader) {
+		if (classLoader == null) return false;
+		try {
+			return classLoader.loadClass(CollectedClassLoader.class.getName()) == CollectedClassLoader.class;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the <code>CollectedClassLoader</code> which collects the <code>ClassLoader</code> of the given
+	 * <code>interface</code> together with the <code>ClassLoader</code> of Transloader itself. There is only ever one
+	 * such <code>CollectedClassLoader</code> for each <code>ClassLoader</code> of an <code>interface</code>.
+	 */
+	static CollectedClassLoader forInterface(Class targetInterface) {
+		ClassLoader interfaceClassLoader = targetInterface.getClassLoader();
+		synchronized (COLLECTED_BY_CLASS_LOADER) {
+			if (interfaceClassLoader == null) {
+				if (collectedForBootstrap == null) collectedForBootstrap = collect(null);
+				return collectedForBootstrap;
+			}
+			CollectedClassLoader collected = (CollectedClassLoader) COLLECTED_BY_CLASS_LOADER.get(interfaceClassLoader);
+			if (collected == null) {
+				collected = collect(interfaceClassLoader);
+				COLLECTED_BY_CLASS_LOADER.put(interfaceClassLoader, collected);
+			}
+			return collected;
+		}
+	}
+
+	private static CollectedClassLoader collect(ClassLoader interfaceClassLoader) {
+		List classLoaders = new ArrayList();
+		if (interfaceClassLoader != null) classLoaders.add(interfaceClassLoader);
+		if (OWN_CLASS_LOADER != null && OWN_CLASS_LOADER != interfaceClassLoader) classLoaders.add(OWN_CLASS_LOADER);
+		return new CollectedClassLoader((ClassLoader[]) classLoaders.toArray(new ClassLoader[classLoaders.size()]),
+				interfaceClassLoader);
+	}
+
+	protected Class findClass(String name) throws ClassNotFoundException {
+		synchronized (classesByName) {
+			Class found = (Class) classesByName.get(name);
+			if (found != null) return found;
+		}
+		for (int i = 0; i < classLoaders.length; i++) {
+			try {
+				Class found = classLoaders[i].loadClass(name);
+				synchronized (classesByName) {
+					classesByName.put(name, found);
+				}
+				return found;
+			} catch (ClassNotFoundException e) {
+				// try the next one
+			}
+		}
+		throw new ClassNotFoundException(name);
+	}
+
+	/**
+	 * Makes a {@link Proxy} which implements the given <code>interface</code> by calling the given handler, defining
+	 * its <code>Class</code> with the <code>interface</code>'s own <code>ClassLoader</code> or this one.
+	 */
+	Object newProxyInstance(Class targetInterface, InvocationHandler handler) {
+		try {
+			return getProxyConstructor(targetInterface).newInstance(new Object[] {handler});
+		} catch (Exception e) {
+			throw new TransloaderException("Unable to make a proxy implementing '" + targetInterface + "'.", e);
+		}
+	}
+
+	private Constructor getProxyConstructor(Class targetInterface) throws NoSuchMethodException {
+		synchronized (proxyConstructorsByInterface) {
+			Constructor constructor = (Constructor) proxyConstructorsByInterface.get(targetInterface);
+			if (constructor == null) {
+				Class proxyClass =
+						Proxy.getProxyClass(getProxyClassLoader(targetInterface), new Class[] {targetInterface});
+				constructor = proxyClass.getConstructor(INVOCATION_HANDLER_TYPE);
+				// the proxy Class for an interface which is not public is not public either
+				if (!Modifier.isPublic(proxyClass.getModifiers())) constructor.setAccessible(true);
+				proxyConstructorsByInterface.put(targetInterface, constructor);
+			}
+			return constructor;
+		}
+	}
+
+	private ClassLoader getProxyClassLoader(Class targetInterface) {
+		boolean isPublic = Modifier.isPublic(targetInterface.getModifiers());
+		return interfaceClassLoaderSeesTransloader || !isPublic ? interfaceClassLoader : this;
+	}
+}
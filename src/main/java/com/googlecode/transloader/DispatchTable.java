@@ -0,0 +1,124 @@
+package com.googlecode.transloader;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.collections.map.AbstractReferenceMap;
+import org.apache.commons.collections.map.ReferenceIdentityMap;
+
+/**
+ * The methods of a wrapped <code>Class</code> which the <code>Method</code>s of an <code>interface</code> call
+ * through to, all resolved together the first time any object of that <code>Class</code> is made castable to that
+ * <code>interface</code>. Tables are shared by all such proxies and never change once made, so finding the method to
+ * call through to needs no locking.
+ * <p>
+ * If the ASM library is available, each table also has a proxy <code>Class</code> generated by {@link ProxyGenerator}
+ * for its <code>interface</code> and wrapped <code>Class</code>, which calls the <code>Method</code>s whose
+ * parameters and results never need cloning straight through to the wrapped object. Setting the system property
+ * <code>com.googlecode.transloader.generateProxies</code> to <code>false</code> turns this off.
+ * </p>
+ */
+final class DispatchTable {
+	private static final boolean GENERATES_PROXIES = canGenerateProxies();
+	// Classes are only weakly referenced and tables only softly, but a table references its Class, so caching it delays
+	// the unloading of that Class until the garbage collector clears the soft references, which it only guarantees to
+	// do before running out of memory
+	private static final Map TABLES_BY_CLASS =
+			new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.SOFT);
+
+	private final Class wrappedClass;
+	private final Map resolvedMethods;
+	private final Constructor proxyConstructor;
+
+	private DispatchTable(Class wrappedClass, Class targetInterface) {
+		this.wrappedClass = wrappedClass;
+		Method[] methods = targetInterface.getMethods();
+		resolvedMethods = new HashMap(methods.length * 2);
+		Map directMethods = new HashMap(methods.length * 2);
+		for (int i = 0; i < methods.length; i++) {
+			ResolvedMethod resolved = resolve(wrappedClass, methods[i]);
+			resolvedMethods.put(methods[i], resolved);
+			Method calledAsIs = resolved.getMethodCalledAsIs();
+			if (calledAsIs != null && calledAsIs.getReturnType() == methods[i].getReturnType()) {
+				directMethods.put(methods[i], calledAsIs);
+			}
+		}
+		proxyConstructor = GENERATES_PROXIES ? generateProxy(targetInterface, wrappedClass, directMethods) : null;
+	}
+
+	private static boolean canGenerateProxies() {
+		if ("false".equals(System.getProperty("com.googlecode.transloader.generateProxies"))) return false;
+		try {
+			Class.forName("org.objectweb.asm.CodeVisitor", false, DispatchTable.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static Constructor generateProxy(Class targetInterface, Class wrappedClass, Map directMethods) {
+		try {
+			return ProxyGenerator.generate(targetInterface, wrappedClass, directMethods);
+		} catch (LinkageError e) {
+			// a version of ASM which does not match, in which case proxies are made as if it were not there at all
+			return null;
+		}
+	}
+
+	static DispatchTable get(Class wrappedClass, Class targetInterface) {
+		Map tablesByInterface;
+		synchronized (TABLES_BY_CLASS) {
+			tablesByInterface = (Map) TABLES_BY_CLASS.get(wrappedClass);
+			if (tablesByInterface == null) {
+				tablesByInterface = new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.SOFT);
+				TABLES_BY_CLASS.put(wrappedClass, tablesByInterface);
+			}
+			DispatchTable table = (DispatchTable) tablesByInterface.get(targetInterface);
+			if (table != null) return table;
+		}
+		DispatchTable table = new DispatchTable(wrappedClass, targetInterface);
+		synchronized (TABLES_BY_CLASS) {
+			tablesByInterface.put(targetInterface, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Makes a generated proxy which calls through to the given object, whose <code>Class</code> must be the wrapped
+	 * <code>Class</code> of this table, and through the given handler.
+	 * 
+	 * @return the proxy, or <code>null</code> if no proxy <code>Class</code> could be generated, in which case a
+	 *         {@link java.lang.reflect.Proxy} has to be made instead
+	 */
+	Object newGeneratedProxy(Object wrappedObject, ProxyInvocationHandler handler) {
+		if (proxyConstructor == null) return null;
+		try {
+			return proxyConstructor.newInstance(new Object[] {wrappedObject, handler});
+		} catch (Exception e) {
+			throw new TransloaderException("Unable to make a proxy calling through to '" + wrappedObject + "'.", e);
+		}
+	}
+
+	/**
+	 * Finds the method to call through to for the given <code>Method</code> of the proxy. Those not declared by the
+	 * <code>interface</code>, such as the <code>Method</code>s of <code>Object</code>, are resolved as they come.
+	 */
+	ResolvedMethod getResolvedMethod(Method method) {
+		ResolvedMethod resolved = (ResolvedMethod) resolvedMethods.get(method);
+		return resolved == null ? resolve(wrappedClass, method) : resolved;
+	}
+
+	private static ResolvedMethod resolve(Class wrappedClass, Method method) {
+		return ResolvedMethod.resolve(wrappedClass, method.getName(), getNames(method.getParameterTypes()));
+	}
+
+	static String[] getNames(Class[] classes) {
+		String[] names = new String[classes.length];
+		for (int i = 0; i < classes.length; i++) {
+			names[i] = classes[i].getName();
+		}
+		return names;
+	}
+}
@@ -0,0 +1,13 @@
+package com.googlecode.transloader;
+
+/**
+ * Runs every task in a new daemon <code>Thread</code> of its own.
+ */
+final class NewThreadTaskRunner implements TaskRunner {
+	public void run(Runnable task) {
+		Assert.isNotNull(task);
+		Thread thread = new Thread(task, "Transloader task");
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
@@ -1,11 +1,13 @@
 package com.googlecode.transloader;
 
-import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Arrays;
 
 import com.googlecode.transloader.clone.CloningStrategy;
+import com.googlecode.transloader.clone.reflect.BinaryCloningStrategy;
+import com.googlecode.transloader.clone.reflect.GraphSnapshot;
 
 /**
  * The wrapper appropriate for wrapping around all <code>Object</code>s referencing <code>Class</code>es from
@@ -14,6 +16,8 @@ import com.googlecode.transloader.clone.CloningStrategy;
  * @author Jeremy Wales
  */
 public final class ObjectWrapper {
+	private static final Object[] NO_PARAMETERS = new Object[0];
+
 	private final Object wrappedObject;
 	private final CloningStrategy cloner;
 
@@ -61,7 +65,7 @@ public final class ObjectWrapper {
 	 */
 	public boolean isInstanceOf(String typeName) {
 		Assert.isNotNull(typeName);
-		return Transloader.DEFAULT.wrap(wrappedObject.getClass()).isAssignableTo(typeName);
+		return ClassWrapper.classIsAssignableToType(wrappedObject.getClass(), typeName);
 	}
 
 	/**
@@ -86,6 +90,10 @@ public final class ObjectWrapper {
 	 */
 	public Object cloneWith(ClassLoader classLoader) {
 		Assert.isNotNull(classLoader);
+		return performCloning(classLoader);
+	}
+
+	private Object performCloning(ClassLoader classLoader) {
 		if (isNull()) return null;
 		try {
 			return cloner.cloneObjectUsingClassLoader(getUnwrappedSelf(), classLoader);
@@ -94,35 +102,249 @@ public final class ObjectWrapper {
 		}
 	}
 
+	/**
+	 * Starts getting an equivalent of the wrapped object in the same way as {@link #cloneWith(ClassLoader)}, but in a
+	 * new <code>Thread</code> of its own, so that the caller does not have to wait for it.
+	 * 
+	 * @param classLoader the <code>ClassLoader</code> to use in creating an equivalent of the wrapped object
+	 * @return the pending result of cloning the wrapped object
+	 */
+	public PendingResult cloneWithAsync(ClassLoader classLoader) {
+		Assert.isNotNull(classLoader);
+		return performAsyncCloning(classLoader, TaskRunner.NEW_THREAD_PER_TASK);
+	}
+
+	/**
+	 * Starts getting an equivalent of the wrapped object in the same way as {@link #cloneWith(ClassLoader)}, but as a
+	 * task run by the given <code>TaskRunner</code>, so that the caller does not have to wait for it.
+	 * 
+	 * @param classLoader the <code>ClassLoader</code> to use in creating an equivalent of the wrapped object
+	 * @param runner the <code>TaskRunner</code> to run the cloning with
+	 * @return the pending result of cloning the wrapped object
+	 */
+	public PendingResult cloneWithAsync(ClassLoader classLoader, TaskRunner runner) {
+		Assert.areNotNull(classLoader, runner);
+		return performAsyncCloning(classLoader, runner);
+	}
+
+	private PendingResult performAsyncCloning(final ClassLoader classLoader, TaskRunner runner) {
+		return PendingResult.start(new PendingResult.Computation() {
+			public Object compute() {
+				return performCloning(classLoader);
+			}
+		}, runner);
+	}
+
+	/**
+	 * Gets an equivalent of the wrapped object for each of the given <code>ClassLoader</code>s in the same way as
+	 * {@link #cloneWith(ClassLoader)}, for all of them at once, each in a new <code>Thread</code> of its own.
+	 * 
+	 * @param classLoaders the <code>ClassLoader</code>s to use in creating equivalents of the wrapped object
+	 * @return an equivalent of the wrapped object for each of the given <code>ClassLoader</code>s, in the same order
+	 */
+	public Object[] cloneWithAll(ClassLoader[] classLoaders) {
+		Assert.isNotNull(classLoaders);
+		return performCloningWithAll(classLoaders, TaskRunner.NEW_THREAD_PER_TASK);
+	}
+
+	/**
+	 * Gets an equivalent of the wrapped object for each of the given <code>ClassLoader</code>s in the same way as
+	 * {@link #cloneWith(ClassLoader)}, as tasks run by the given <code>TaskRunner</code>, waiting for all of them to
+	 * finish. If the <code>CloningStrategy</code> configured at construction is a {@link BinaryCloningStrategy}, the
+	 * wrapped object graph is only walked once, into a {@link GraphSnapshot} which each task then materializes;
+	 * otherwise each task clones the wrapped object graph all over again. Any <code>null</code> among the
+	 * <code>ClassLoader</code>s is rejected by its own task, just as by {@link #cloneWith(ClassLoader)}, and the
+	 * <code>IllegalArgumentException</code> is then thrown from here.
+	 * 
+	 * @param classLoaders the <code>ClassLoader</code>s to use in creating equivalents of the wrapped object
+	 * @param runner the <code>TaskRunner</code> to run the cloning with
+	 * @return an equivalent of the wrapped object for each of the given <code>ClassLoader</code>s, in the same order
+	 */
+	public Object[] cloneWithAll(ClassLoader[] classLoaders, TaskRunner runner) {
+		Assert.areNotNull(classLoaders, runner);
+		return performCloningWithAll(classLoaders, runner);
+	}
+
+	private Object[] performCloningWithAll(ClassLoader[] classLoaders, TaskRunner runner) {
+		Object[] clones = new Object[classLoaders.length];
+		if (isNull()) return clones;
+		final GraphSnapshot snapshot = cloner instanceof BinaryCloningStrategy ? takeSnapshot() : null;
+		PendingResult[] pendingClones = new PendingResult[classLoaders.length];
+		for (int i = 0; i < classLoaders.length; i++) {
+			final ClassLoader classLoader = classLoaders[i];
+			pendingClones[i] = PendingResult.start(new PendingResult.Computation() {
+				public Object compute() {
+					return snapshot == null ? cloneWith(classLoader) : materialize(snapshot, classLoader);
+				}
+			}, runner);
+		}
+		for (int i = 0; i < classLoaders.length; i++) {
+			clones[i] = pendingClones[i].get();
+		}
+		return clones;
+	}
+
+	private GraphSnapshot takeSnapshot() {
+		try {
+			return ((BinaryCloningStrategy) cloner).snapshot(getUnwrappedSelf());
+		} catch (Exception e) {
+			throw new TransloaderException("Unable to clone '" + getUnwrappedSelf() + "'.", e);
+		}
+	}
+
+	private Object materialize(GraphSnapshot snapshot, ClassLoader classLoader) {
+		Assert.isNotNull(classLoader);
+		try {
+			return snapshot.materializeUsingClassLoader(classLoader);
+		} catch (Exception e) {
+			throw new TransloaderException("Unable to clone '" + getUnwrappedSelf() + "'.", e);
+		}
+	}
+
 	/**
 	 * Invokes on the wrapped object the method described by the given invocation description, with the parameters given
 	 * by the same. Finds the method reflectively using parameter types loaded from the wrapped object's
-	 * <code>ClassLoader</code>(s). Any parameters which refer to <code>Class</code>es that are foreign to the
-	 * wrapped object's <code>ClassLoader</code>(s) are cloned using the <code>CloningStrategy</code> injected at
-	 * construction.
+	 * <code>ClassLoader</code>(s), only the first time it is invoked on any instance of the wrapped object's
+	 * <code>Class</code>. Any parameters which refer to <code>Class</code>es that are foreign to the wrapped
+	 * object's <code>ClassLoader</code>(s) are cloned using the <code>CloningStrategy</code> injected at
+	 * construction. Parameters of primitive types and of immutable types shared by every <code>ClassLoader</code>,
+	 * such as <code>String</code>, are passed as they are.
 	 * 
 	 * @param description the description of the invocation to be performed
 	 * @return the result of performing the invocation described by <code>description</code>
 	 */
 	public Object invoke(InvocationDescription description) {
 		Assert.isNotNull(description);
+		return performInvocation(description, null);
+	}
+
+	/**
+	 * Invokes on the wrapped object the method described by the given invocation description in the same way as
+	 * {@link #invoke(InvocationDescription)}, but then also clones the result using the given
+	 * <code>ClassLoader</code>, so that it can be used by a caller whose <code>Class</code>es come from there.
+	 * Where the result references clones of the parameters, it references the very parameters given instead of yet
+	 * more clones of them. Results that are <code>null</code>, primitive or of those same immutable types are
+	 * returned as they are. If the invoked method throws an exception, it is cloned back too, becoming the target of
+	 * the <code>InvocationTargetException</code> that causes the <code>TransloaderException</code> thrown.
+	 * 
+	 * @param description the description of the invocation to be performed
+	 * @param callerClassLoader the <code>ClassLoader</code> to use in cloning the result
+	 * @return the result of performing the invocation described by <code>description</code>, cloned using
+	 *         <code>callerClassLoader</code>
+	 */
+	public Object invoke(InvocationDescription description, ClassLoader callerClassLoader) {
+		Assert.areNotNull(description, callerClassLoader);
+		return performInvocation(description, callerClassLoader);
+	}
+
+	/**
+	 * Starts invoking on the wrapped object the method described by the given invocation description in the same way
+	 * as {@link #invoke(InvocationDescription)}, but in a new <code>Thread</code> of its own, so that the caller does
+	 * not have to wait while the parameters are cloned and the method runs.
+	 * 
+	 * @param description the description of the invocation to be performed
+	 * @return the pending result of performing the invocation described by <code>description</code>
+	 */
+	public PendingResult invokeAsync(InvocationDescription description) {
+		Assert.isNotNull(description);
+		return performAsyncInvocation(description, TaskRunner.NEW_THREAD_PER_TASK);
+	}
+
+	/**
+	 * Starts invoking on the wrapped object the method described by the given invocation description in the same way
+	 * as {@link #invoke(InvocationDescription)}, but as a task run by the given <code>TaskRunner</code>, so that the
+	 * caller does not have to wait while the parameters are cloned and the method runs. Every invocation clones its
+	 * parameters with a clone history of its own, so any number of them can be run at the same time.
+	 * 
+	 * @param description the description of the invocation to be performed
+	 * @param runner the <code>TaskRunner</code> to run the invocation with
+	 * @return the pending result of performing the invocation described by <code>description</code>
+	 */
+	public PendingResult invokeAsync(InvocationDescription description, TaskRunner runner) {
+		Assert.areNotNull(description, runner);
+		return performAsyncInvocation(description, runner);
+	}
+
+	private PendingResult performAsyncInvocation(final InvocationDescription description, TaskRunner runner) {
+		return PendingResult.start(new PendingResult.Computation() {
+			public Object compute() {
+				return performInvocation(description, null);
+			}
+		}, runner);
+	}
+
+	/**
+	 * Invokes on the wrapped object all of the methods described by the given invocation descriptions, one after the
+	 * other in the order given, in the same way as {@link #invoke(InvocationDescription)}. However, all the methods
+	 * are found before any of them is invoked, and the parameters of all the invocations are cloned together in one
+	 * go, so that any object given as a parameter to more than one of them is only cloned once and the very same clone
+	 * is passed to each of them.
+	 * 
+	 * @param descriptions the descriptions of the invocations to be performed
+	 * @return the results of performing the invocations described by <code>descriptions</code>, in the same order
+	 */
+	public Object[] invokeAll(InvocationDescription[] descriptions) {
+		Assert.areNotNull(descriptions);
+		if (isNull()) {
+			throw new TransloaderException("Unable to perform " + descriptions.length + " invocations on 'null'.",
+					newWrappedNullException());
+		}
+		ResolvedMethod[] methods = new ResolvedMethod[descriptions.length];
+		Object[][] parameters = new Object[descriptions.length][];
+		for (int i = 0; i < descriptions.length; i++) {
+			methods[i] =
+					ResolvedMethod.resolve(getUnwrappedSelf().getClass(), descriptions[i].getMethodName(),
+							descriptions[i].getParameterTypeNames());
+			try {
+				methods[i].getMethod();
+			} catch (Exception e) {
+				throw newInvocationException(descriptions[i].getMethodName(), descriptions[i].getParameterTypeNames(),
+						e);
+			}
+			parameters[i] = descriptions[i].getParameters();
+		}
+		Object[][] clonedParameters;
 		try {
-			Class wrappedClass = getUnwrappedSelf().getClass();
-			// TODO collect all ClassLoaders from the object graph into an abstraction named CollectedClassLoader
-			ClassLoader wrappedClassLoader = wrappedClass.getClassLoader();
-			Class[] parameterTypes = ClassWrapper.getClasses(description.getParameterTypeNames(), wrappedClassLoader);
-			Object[] clonedParameters =
-					(Object[]) cloner.cloneObjectUsingClassLoader(description.getParameters(), wrappedClassLoader);
-			Method method = wrappedClass.getMethod(description.getMethodName(), parameterTypes);
-			return method.invoke(getUnwrappedSelf(), clonedParameters);
+			clonedParameters =
+					ResolvedMethod.cloneParametersOfAll(methods, parameters, ResolvedMethod
+							.getClassLoader(getUnwrappedSelf().getClass()), cloner);
+		} catch (Exception e) {
+			throw new TransloaderException("Unable to clone the parameters of " + descriptions.length
+					+ " invocations on '" + getUnwrappedSelf() + "'.", e);
+		}
+		Object[] results = new Object[descriptions.length];
+		for (int i = 0; i < descriptions.length; i++) {
+			try {
+				results[i] = methods[i].invokeWithClonedParameters(getUnwrappedSelf(), clonedParameters[i]);
+			} catch (Exception e) {
+				throw newInvocationException(descriptions[i].getMethodName(), descriptions[i].getParameterTypeNames(),
+						e);
+			}
+		}
+		return results;
+	}
+
+	private Object performInvocation(InvocationDescription description, ClassLoader callerClassLoader) {
+		try {
+			ResolvedMethod method =
+					ResolvedMethod.resolve(getUnwrappedSelf().getClass(), description.getMethodName(),
+							description.getParameterTypeNames());
+			return method.invoke(getUnwrappedSelf(), description.getParameters(), cloner, callerClassLoader);
 		} catch (Exception e) {
 			// TODO test Exception from invoke
-			throw new TransloaderException(
-					"Unable to invoke '" + description.getMethodName() + Arrays.asList(description.getParameterTypeNames()) + "' on '" + getUnwrappedSelf() + "'.",
-					e);
+			throw newInvocationException(description.getMethodName(), description.getParameterTypeNames(), e);
 		}
 	}
 
+	private static NullPointerException newWrappedNullException() {
+		return new NullPointerException("The wrapped object is null, so there is nothing to invoke methods on.");
+	}
+
+	private TransloaderException newInvocationException(String methodName, String[] parameterTypeNames, Exception e) {
+		return new TransloaderException("Unable to invoke '" + methodName + Arrays.asList(parameterTypeNames)
+				+ "' on '" + getUnwrappedSelf() + "'.", e);
+	}
+
 	/**
 	 * Makes an implementation of the given <code>interface</code> that calls through to the wrapped object. This is
 	 * particularly useful if you have access in the current <code>ClassLoader</code> to an <code>interface</code>
@@ -134,19 +356,103 @@ public final class ObjectWrapper {
 	 * equivalent to the given <code>interface</code>, so can also be used for "duck"-typing, as a more syntactically
 	 * elegant alternative to using {@link #invoke(InvocationDescription)}, if desired.
 	 * </p>
+	 * <p>
+	 * If the optional ASM library is available and both the <code>interface</code> and the wrapped object's
+	 * <code>Class</code> are <code>public</code>, the proxy is an instance of a <code>Class</code> generated once for
+	 * each such pair. Its <code>Method</code>s whose parameters and results never need cloning, such as those taking
+	 * and returning only primitives and <code>String</code>s, call straight through to the wrapped object without
+	 * boxing anything, and the rest call through in the same way as a {@link Proxy}.
+	 * </p>
+	 * <p>
+	 * Otherwise it is a {@link Proxy}, whose <code>Class</code> is defined by the <code>interface</code>'s own
+	 * <code>ClassLoader</code> if that can see Transloader's <code>Class</code>es or the <code>interface</code> is not
+	 * <code>public</code>, and otherwise by a <code>ClassLoader</code> which collects the <code>interface</code>'s own
+	 * <code>ClassLoader</code> together with Transloader's, so the <code>interface</code> can come from anywhere.
+	 * That <code>Class</code> is only made once for each <code>interface</code> and then reused for every proxy.
+	 * </p>
+	 * <p>
+	 * If what is wrapped is <code>null</code>, every call through the proxy throws a {@link TransloaderException}, just
+	 * as {@link #invoke(InvocationDescription)} does.
+	 * </p>
 	 * 
 	 * @param targetInterface the <code>interface</code> that the returned object can be cast to
-	 * @return a {@link Proxy} to the wrapped object that implements <code>desiredInterface</code>
+	 * @return a proxy to the wrapped object that implements <code>desiredInterface</code>
 	 */
 	public Object makeCastableTo(Class targetInterface) {
 		Assert.isNotNull(targetInterface);
-		// TODO collect all ClassLoaders from the object graph into an abstraction named CollectedClassLoader
-		return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {targetInterface}, new Invoker());
+		return newProxy(targetInterface, null);
+	}
+
+	/**
+	 * Makes an implementation of the given <code>interface</code> that calls through to the wrapped object in the
+	 * same way as {@link #makeCastableTo(Class)}, except that the results of the calls are cloned back using the
+	 * given <code>ClassLoader</code> in the same way as by {@link #invoke(InvocationDescription, ClassLoader)}, so
+	 * that they are castable to the return types of the <code>interface</code> if it is given its own
+	 * <code>ClassLoader</code>. Exceptions thrown by the wrapped object are cloned back too and then thrown as they are
+	 * if the <code>interface</code> method allows it.
+	 * 
+	 * @param targetInterface the <code>interface</code> that the returned object can be cast to
+	 * @param callerClassLoader the <code>ClassLoader</code> to use in cloning results and exceptions
+	 * @return a proxy to the wrapped object that implements <code>desiredInterface</code>
+	 */
+	public Object makeCastableTo(Class targetInterface, ClassLoader callerClassLoader) {
+		Assert.areNotNull(targetInterface, callerClassLoader);
+		return newProxy(targetInterface, callerClassLoader);
+	}
+
+	private Object newProxy(Class targetInterface, ClassLoader callerClassLoader) {
+		Invoker invoker = new Invoker(targetInterface, callerClassLoader);
+		Object proxy = invoker.dispatchTable == null ? null : invoker.dispatchTable.newGeneratedProxy(
+				getUnwrappedSelf(), invoker);
+		return proxy == null ? CollectedClassLoader.forInterface(targetInterface).newProxyInstance(targetInterface,
+				invoker) : proxy;
 	}
 
-	private class Invoker implements InvocationHandler {
+	/**
+	 * Calls through to the wrapped object using the <code>DispatchTable</code> for the wrapped object's
+	 * <code>Class</code> and the <code>interface</code>, so that calls involve no names and no locking at all.
+	 */
+	private class Invoker implements ProxyInvocationHandler {
+		private final DispatchTable dispatchTable;
+		private final ClassLoader callerClassLoader;
+
+		Invoker(Class targetInterface, ClassLoader callerClassLoader) {
+			dispatchTable = isNull() ? null : DispatchTable.get(getUnwrappedSelf().getClass(), targetInterface);
+			this.callerClassLoader = callerClassLoader;
+		}
+
 		public Object invoke(Object proxy, Method method, Object[] parameters) throws Throwable {
-			return ObjectWrapper.this.invoke(new InvocationDescription(method, parameters));
+			if (dispatchTable == null) {
+				throw newInvocationException(method.getName(), DispatchTable.getNames(method.getParameterTypes()),
+						newWrappedNullException());
+			}
+			try {
+				return dispatchTable.getResolvedMethod(method).invoke(getUnwrappedSelf(),
+						parameters == null ? NO_PARAMETERS : parameters, cloner, callerClassLoader);
+			} catch (InvocationTargetException e) {
+				if (callerClassLoader != null && canThrow(method, e.getTargetException())) throw e.getTargetException();
+				throw newInvocationException(method.getName(), DispatchTable.getNames(method.getParameterTypes()), e);
+			} catch (Exception e) {
+				throw newInvocationException(method.getName(), DispatchTable.getNames(method.getParameterTypes()), e);
+			}
+		}
+
+		public Throwable getFailure(Method method, Throwable thrown) {
+			if (callerClassLoader != null) {
+				thrown = ResolvedMethod.cloneBack(thrown, callerClassLoader);
+				if (canThrow(method, thrown)) return thrown;
+			}
+			return newInvocationException(method.getName(), DispatchTable.getNames(method.getParameterTypes()),
+					new InvocationTargetException(thrown));
+		}
+
+		private boolean canThrow(Method method, Throwable thrown) {
+			if (thrown instanceof RuntimeException || thrown instanceof Error) return true;
+			Class[] exceptionTypes = method.getExceptionTypes();
+			for (int i = 0; i < exceptionTypes.length; i++) {
+				if (exceptionTypes[i].isInstance(thrown)) return true;
+			}
+			return false;
 		}
 	}
 }
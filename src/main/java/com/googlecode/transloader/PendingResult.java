@@ -0,0 +1,82 @@
+package com.googlecode.transloader;
+
+/**
+ * The result of a task run asynchronously by an {@link ObjectWrapper}, which can be waited for. Each task works with
+ * nothing but what it was given when it was started and the state it creates for itself, such as its own clone
+ * history, so tasks can safely be run at the same time as each other and as any other use of Transloader.
+ */
+public final class PendingResult {
+	private final Object lock = new Object();
+	private boolean done;
+	private Object result;
+	private Throwable failure;
+
+	private PendingResult() {
+	}
+
+	static PendingResult start(final Computation computation, TaskRunner runner) {
+		final PendingResult pending = new PendingResult();
+		runner.run(new Runnable() {
+			public void run() {
+				try {
+					pending.complete(computation.compute(), null);
+				} catch (RuntimeException e) {
+					pending.complete(null, e);
+				} catch (Error e) {
+					pending.complete(null, e);
+				}
+			}
+		});
+		return pending;
+	}
+
+	private void complete(Object computedResult, Throwable computationFailure) {
+		synchronized (lock) {
+			result = computedResult;
+			failure = computationFailure;
+			done = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Indicates whether or not the task has finished, whether by producing its result or by failing.
+	 * 
+	 * @return <code>true</code> if waiting for the result would not block
+	 */
+	public boolean isDone() {
+		synchronized (lock) {
+			return done;
+		}
+	}
+
+	/**
+	 * Waits for the task to finish and then gives its result.
+	 * 
+	 * @return the result of the task
+	 * @throws TransloaderException if the task failed, which is the very same exception it would have thrown had it
+	 *             been performed synchronously, or if waiting is interrupted
+	 */
+	public Object get() {
+		synchronized (lock) {
+			while (!done) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new TransloaderException("Interrupted while waiting for a task to finish.", e);
+				}
+			}
+			if (failure instanceof Error) throw (Error) failure;
+			if (failure != null) throw (RuntimeException) failure;
+			return result;
+		}
+	}
+
+	/**
+	 * The callback interface for what is computed by a task.
+	 */
+	static interface Computation {
+		Object compute();
+	}
+}
@@ -0,0 +1,316 @@
+package com.googlecode.transloader;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.CodeVisitor;
+import org.objectweb.asm.Constants;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates a proxy <code>Class</code> for one <code>interface</code> and one wrapped <code>Class</code>, whose
+ * <code>Method</code>s call straight through to the matching <code>Method</code>s of the wrapped object wherever
+ * their parameters and results can be passed as they are, with primitives unboxed, and through a
+ * {@link ProxyInvocationHandler} everywhere else. It uses the ASM library, which is an optional dependency of
+ * Transloader, so nothing else refers to this <code>Class</code> unless ASM is available.
+ */
+final class ProxyGenerator implements Constants {
+	private static final String PROXY_CLASS_NAME = "com.googlecode.transloader.GeneratedProxy";
+	private static final String PROXY_INTERNAL_NAME = PROXY_CLASS_NAME.replace('.', '/');
+	private static final String HANDLER_INTERNAL_NAME = Type.getInternalName(ProxyInvocationHandler.class);
+	private static final String HANDLER_DESCRIPTOR = Type.getDescriptor(ProxyInvocationHandler.class);
+	private static final String METHODS_DESCRIPTOR = Type.getDescriptor(Method[].class);
+	private static final String OBJECT_INTERNAL_NAME = Type.getInternalName(Object.class);
+	private static final String INVOKE_DESCRIPTOR =
+			"(Ljava/lang/Object;Ljava/lang/reflect/Method;[Ljava/lang/Object;)Ljava/lang/Object;";
+	private static final String GET_FAILURE_DESCRIPTOR =
+			"(Ljava/lang/reflect/Method;Ljava/lang/Throwable;)Ljava/lang/Throwable;";
+	private static final Class[] CONSTRUCTOR_TYPES = {Object.class, ProxyInvocationHandler.class};
+	private static final Class[] PRIMITIVES =
+			{Boolean.TYPE, Character.TYPE, Byte.TYPE, Short.TYPE, Integer.TYPE, Long.TYPE, Float.TYPE, Double.TYPE};
+	private static final Class[] BOXES =
+			{Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class,
+					Double.class};
+
+	private ProxyGenerator() {
+	}
+
+	/**
+	 * Generates the proxy <code>Class</code> for the given <code>interface</code> and wrapped <code>Class</code>, in
+	 * a new <code>ClassLoader</code> of its own, and gets the constructor taking the wrapped object and the
+	 * {@link ProxyInvocationHandler}.
+	 * 
+	 * @param targetInterface the <code>interface</code> to implement
+	 * @param wrappedClass the <code>Class</code> of the objects to call through to
+	 * @param directMethods the <code>Method</code>s of the <code>interface</code> which can be called straight
+	 *            through to, each mapped to the <code>Method</code> of the wrapped <code>Class</code> to call
+	 * @return the constructor, or <code>null</code> if no such <code>Class</code> can be generated, in which case a
+	 *         {@link java.lang.reflect.Proxy} has to be used instead
+	 */
+	static Constructor generate(Class targetInterface, Class wrappedClass, Map directMethods) {
+		if (!canGenerate(targetInterface, wrappedClass)) return null;
+		Method[] methods = getProxyMethods(targetInterface);
+		byte[] bytes = generate(targetInterface, wrappedClass, methods, directMethods);
+		Class proxyClass = new GeneratedClassLoader(targetInterface.getClassLoader(), wrappedClass).define(bytes);
+		try {
+			proxyClass.getField("methods").set(null, methods);
+			return proxyClass.getConstructor(CONSTRUCTOR_TYPES);
+		} catch (Exception e) {
+			throw new TransloaderException("Unable to generate a proxy implementing '" + targetInterface + "'.", e);
+		}
+	}
+
+	/**
+	 * Whether or not the generated <code>Class</code> could see both the <code>interface</code> and the wrapped
+	 * <code>Class</code>. Neither can be hidden from it, the wrapped <code>Class</code> cannot be an array, and the
+	 * <code>interface</code> must not refer to another <code>Class</code> with the same name as the wrapped one,
+	 * since the generated <code>Class</code> could only see one of them.
+	 */
+	private static boolean canGenerate(Class targetInterface, Class wrappedClass) {
+		if (!Modifier.isPublic(targetInterface.getModifiers()) || !Modifier.isPublic(wrappedClass.getModifiers())
+				|| wrappedClass.isArray()) return false;
+		if (refersTo(targetInterface, wrappedClass)) return false;
+		Method[] methods = targetInterface.getMethods();
+		for (int i = 0; i < methods.length; i++) {
+			if (refersTo(methods[i].getReturnType(), wrappedClass)
+					|| refersToAny(methods[i].getParameterTypes(), wrappedClass)
+					|| refersToAny(methods[i].getExceptionTypes(), wrappedClass)) return false;
+		}
+		return true;
+	}
+
+	private static boolean refersToAny(Class[] types, Class wrappedClass) {
+		for (int i = 0; i < types.length; i++) {
+			if (refersTo(types[i], wrappedClass)) return true;
+		}
+		return false;
+	}
+
+	private static boolean refersTo(Class type, Class wrappedClass) {
+		while (type.isArray()) {
+			type = type.getComponentType();
+		}
+		String name = type.getName();
+		return name.equals(wrappedClass.getName()) && type != wrappedClass
+				|| name.equals(ProxyInvocationHandler.class.getName()) && type != ProxyInvocationHandler.class;
+	}
+
+	/**
+	 * Gets the <code>Method</code>s a proxy must implement, which are those of the <code>interface</code> together
+	 * with the <code>Method</code>s of <code>Object</code> that a {@link java.lang.reflect.Proxy} passes on too, each
+	 * only once. Those which differ only in their return types are all kept, as a <code>Class</code> can have them.
+	 */
+	private static Method[] getProxyMethods(Class targetInterface) {
+		Map methodsByKey = new HashMap();
+		List methods = new ArrayList();
+		try {
+			add(Object.class.getMethod("hashCode", new Class[0]), methodsByKey, methods);
+			add(Object.class.getMethod("equals", new Class[] {Object.class}), methodsByKey, methods);
+			add(Object.class.getMethod("toString", new Class[0]), methodsByKey, methods);
+		} catch (NoSuchMethodException e) {
+			throw new TransloaderException("Unable to find the Methods of Object.", e);
+		}
+		Method[] interfaceMethods = targetInterface.getMethods();
+		for (int i = 0; i < interfaceMethods.length; i++) {
+			add(interfaceMethods[i], methodsByKey, methods);
+		}
+		return (Method[]) methods.toArray(new Method[methods.size()]);
+	}
+
+	private static void add(Method method, Map methodsByKey, List methods) {
+		String key = method.getName() + Type.getMethodDescriptor(method);
+		if (methodsByKey.containsKey(key)) return;
+		methodsByKey.put(key, method);
+		methods.add(method);
+	}
+
+	private static byte[] generate(Class targetInterface, Class wrappedClass, Method[] methods, Map directMethods) {
+		String wrappedName = Type.getInternalName(wrappedClass);
+		String wrappedDescriptor = Type.getDescriptor(wrappedClass);
+		ClassWriter writer = new ClassWriter(true);
+		writer.visit(ACC_PUBLIC | ACC_FINAL | ACC_SUPER, PROXY_INTERNAL_NAME, OBJECT_INTERNAL_NAME,
+				new String[] {Type.getInternalName(targetInterface)}, null);
+		writer.visitField(ACC_PRIVATE | ACC_FINAL, "target", wrappedDescriptor, null, null);
+		writer.visitField(ACC_PRIVATE | ACC_FINAL, "handler", HANDLER_DESCRIPTOR, null, null);
+		writer.visitField(ACC_PUBLIC | ACC_STATIC, "methods", METHODS_DESCRIPTOR, null, null);
+		generateConstructor(writer, wrappedName, wrappedDescriptor);
+		for (int i = 0; i < methods.length; i++) {
+			Method directMethod = (Method) directMethods.get(methods[i]);
+			CodeVisitor code =
+					writer.visitMethod(ACC_PUBLIC, methods[i].getName(), Type.getMethodDescriptor(methods[i]),
+							getInternalNames(methods[i].getExceptionTypes()), null);
+			if (directMethod == null) {
+				generateCallThroughHandler(code, methods[i], i);
+			} else {
+				generateDirectCall(code, methods[i], i, directMethod, wrappedName, wrappedDescriptor);
+			}
+			code.visitMaxs(0, 0);
+		}
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static void generateConstructor(ClassWriter writer, String wrappedName, String wrappedDescriptor) {
+		CodeVisitor code =
+				writer.visitMethod(ACC_PUBLIC, "<init>", "(Ljava/lang/Object;" + HANDLER_DESCRIPTOR + ")V", null,
+						null);
+		code.visitVarInsn(ALOAD, 0);
+		code.visitMethodInsn(INVOKESPECIAL, OBJECT_INTERNAL_NAME, "<init>", "()V");
+		code.visitVarInsn(ALOAD, 0);
+		code.visitVarInsn(ALOAD, 1);
+		code.visitTypeInsn(CHECKCAST, wrappedName);
+		code.visitFieldInsn(PUTFIELD, PROXY_INTERNAL_NAME, "target", wrappedDescriptor);
+		code.visitVarInsn(ALOAD, 0);
+		code.visitVarInsn(ALOAD, 2);
+		code.visitFieldInsn(PUTFIELD, PROXY_INTERNAL_NAME, "handler", HANDLER_DESCRIPTOR);
+		code.visitInsn(RETURN);
+		code.visitMaxs(0, 0);
+	}
+
+	/**
+	 * Calls the wrapped object directly with the parameters as they are, returning its result as it is, but giving
+	 * anything it throws to the {@link ProxyInvocationHandler} to work out what to throw instead.
+	 */
+	private static void generateDirectCall(CodeVisitor code, Method method, int index, Method directMethod,
+			String wrappedName, String wrappedDescriptor) {
+		Label start = new Label();
+		Label end = new Label();
+		Label failed = new Label();
+		code.visitLabel(start);
+		code.visitVarInsn(ALOAD, 0);
+		code.visitFieldInsn(GETFIELD, PROXY_INTERNAL_NAME, "target", wrappedDescriptor);
+		Type[] parameterTypes = Type.getArgumentTypes(method);
+		int local = 1;
+		for (int i = 0; i < parameterTypes.length; i++) {
+			code.visitVarInsn(parameterTypes[i].getOpcode(ILOAD), local);
+			local += parameterTypes[i].getSize();
+		}
+		code.visitMethodInsn(INVOKEVIRTUAL, wrappedName, directMethod.getName(), Type
+				.getMethodDescriptor(directMethod));
+		code.visitLabel(end);
+		code.visitInsn(Type.getReturnType(method).getOpcode(IRETURN));
+		code.visitLabel(failed);
+		code.visitVarInsn(ASTORE, local);
+		loadHandlerAndMethod(code, index);
+		code.visitVarInsn(ALOAD, local);
+		code.visitMethodInsn(INVOKEINTERFACE, HANDLER_INTERNAL_NAME, "getFailure", GET_FAILURE_DESCRIPTOR);
+		code.visitInsn(ATHROW);
+		code.visitTryCatchBlock(start, end, failed, "java/lang/Throwable");
+	}
+
+	/**
+	 * Calls the {@link ProxyInvocationHandler} just as a {@link java.lang.reflect.Proxy} would, boxing primitive
+	 * parameters and unboxing a primitive result.
+	 */
+	private static void generateCallThroughHandler(CodeVisitor code, Method method, int index) {
+		code.visitVarInsn(ALOAD, 0);
+		code.visitFieldInsn(GETFIELD, PROXY_INTERNAL_NAME, "handler", HANDLER_DESCRIPTOR);
+		code.visitVarInsn(ALOAD, 0);
+		code.visitFieldInsn(GETSTATIC, PROXY_INTERNAL_NAME, "methods", METHODS_DESCRIPTOR);
+		push(code, index);
+		code.visitInsn(AALOAD);
+		Class[] parameterTypes = method.getParameterTypes();
+		if (parameterTypes.length == 0) {
+			code.visitInsn(ACONST_NULL);
+		} else {
+			push(code, parameterTypes.length);
+			code.visitTypeInsn(ANEWARRAY, OBJECT_INTERNAL_NAME);
+			for (int i = 0, local = 1; i < parameterTypes.length; i++) {
+				Type type = Type.getType(parameterTypes[i]);
+				code.visitInsn(DUP);
+				push(code, i);
+				if (parameterTypes[i].isPrimitive()) {
+					String box = Type.getInternalName(getBox(parameterTypes[i]));
+					code.visitTypeInsn(NEW, box);
+					code.visitInsn(DUP);
+					code.visitVarInsn(type.getOpcode(ILOAD), local);
+					code.visitMethodInsn(INVOKESPECIAL, box, "<init>", "(" + type.getDescriptor() + ")V");
+				} else {
+					code.visitVarInsn(ALOAD, local);
+				}
+				code.visitInsn(AASTORE);
+				local += type.getSize();
+			}
+		}
+		code.visitMethodInsn(INVOKEINTERFACE, "java/lang/reflect/InvocationHandler", "invoke", INVOKE_DESCRIPTOR);
+		Class returnType = method.getReturnType();
+		if (returnType == Void.TYPE) {
+			code.visitInsn(POP);
+			code.visitInsn(RETURN);
+		} else if (returnType.isPrimitive()) {
+			String box = Type.getInternalName(getBox(returnType));
+			code.visitTypeInsn(CHECKCAST, box);
+			code.visitMethodInsn(INVOKEVIRTUAL, box, returnType.getName() + "Value", "()"
+					+ Type.getDescriptor(returnType));
+			code.visitInsn(Type.getType(returnType).getOpcode(IRETURN));
+		} else {
+			if (returnType != Object.class) code.visitTypeInsn(CHECKCAST, Type.getInternalName(returnType));
+			code.visitInsn(ARETURN);
+		}
+	}
+
+	private static void loadHandlerAndMethod(CodeVisitor code, int index) {
+		code.visitVarInsn(ALOAD, 0);
+		code.visitFieldInsn(GETFIELD, PROXY_INTERNAL_NAME, "handler", HANDLER_DESCRIPTOR);
+		code.visitFieldInsn(GETSTATIC, PROXY_INTERNAL_NAME, "methods", METHODS_DESCRIPTOR);
+		push(code, index);
+		code.visitInsn(AALOAD);
+	}
+
+	private static void push(CodeVisitor code, int value) {
+		if (value <= 5) {
+			code.visitInsn(ICONST_0 + value);
+		} else if (value <= Byte.MAX_VALUE) {
+			code.visitIntInsn(BIPUSH, value);
+		} else {
+			code.visitIntInsn(SIPUSH, value);
+		}
+	}
+
+	private static Class getBox(Class primitiveType) {
+		int i = 0;
+		while (PRIMITIVES[i] != primitiveType) {
+			i++;
+		}
+		return BOXES[i];
+	}
+
+	private static String[] getInternalNames(Class[] classes) {
+		String[] names = new String[classes.length];
+		for (int i = 0; i < classes.length; i++) {
+			names[i] = Type.getInternalName(classes[i]);
+		}
+		return names;
+	}
+
+	/**
+	 * Defines a generated proxy <code>Class</code>, which sees the wrapped <code>Class</code> and Transloader's own
+	 * {@link ProxyInvocationHandler} by name and everything else as the <code>interface</code>'s own
+	 * <code>ClassLoader</code> does.
+	 */
+	private static final class GeneratedClassLoader extends ClassLoader {
+		private final Class wrappedClass;
+
+		GeneratedClassLoader(ClassLoader interfaceClassLoader, Class wrappedClass) {
+			super(interfaceClassLoader);
+			this.wrappedClass = wrappedClass;
+		}
+
+		protected synchronized Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (name.equals(wrappedClass.getName())) return wrappedClass;
+			if (name.equals(ProxyInvocationHandler.class.getName())) return ProxyInvocationHandler.class;
+			return super.loadClass(name, resolve);
+		}
+
+		Class define(byte[] bytes) {
+			return defineClass(PROXY_CLASS_NAME, bytes, 0, bytes.length);
+		}
+	}
+}
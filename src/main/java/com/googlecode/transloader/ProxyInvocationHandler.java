@@ -0,0 +1,20 @@
+package com.googlecode.transloader;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+/**
+ * The <code>InvocationHandler</code> of the proxies made by {@link ObjectWrapper#makeCastableTo(Class)}. It is only
+ * <code>public</code> so that proxy <code>Class</code>es generated in other <code>ClassLoader</code>s can call it.
+ */
+public interface ProxyInvocationHandler extends InvocationHandler {
+	/**
+	 * Gives what a proxy should throw when a call it made directly to the wrapped object threw something, just as if
+	 * the call had been made through {@link #invoke(Object, Method, Object[])}.
+	 * 
+	 * @param method the <code>Method</code> of the proxy which was called
+	 * @param thrown what the wrapped object threw
+	 * @return what the proxy should throw
+	 */
+	Throwable getFailure(Method method, Throwable thrown);
+}
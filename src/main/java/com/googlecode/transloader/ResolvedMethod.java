@@ -0,0 +1,282 @@
+package com.googlecode.transloader;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.collections.map.AbstractReferenceMap;
+import org.apache.commons.collections.map.ReferenceIdentityMap;
+
+import com.googlecode.transloader.clone.CloningStrategy;
+import com.googlecode.transloader.clone.SerializationCloningStrategy;
+import com.googlecode.transloader.clone.reflect.CloneContext;
+import com.googlecode.transloader.clone.reflect.ReflectionCloningStrategy;
+
+/**
+ * A method of a wrapped <code>Class</code> found from its name and the names of its parameter types, which is only
+ * looked up once, through the wrapped <code>Class</code>'s <code>ClassLoader</code>, and then reused for every
+ * invocation. A method which cannot be found is remembered too, so that it is not searched for again either.
+ */
+final class ResolvedMethod {
+	// Classes are only weakly referenced and what is found in them only softly, but what is found references its Class,
+	// so caching it delays the unloading of that Class until the garbage collector clears the soft references, which
+	// it only guarantees to do before running out of memory
+	private static final Map METHODS_BY_CLASS =
+			new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.SOFT);
+	private static final CloningStrategy EXCEPTION_CLONER = new SerializationCloningStrategy();
+	private static final Class[] IMMUTABLE_SHARED_TYPES =
+			{String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+					Float.class, Double.class};
+
+	private final String[] parameterTypeNames;
+	private final Method method;
+	private final Class[] parameterTypes;
+	private final int[] clonedParameterIndexes;
+	private final TransloaderException classNotFound;
+	private final String methodNotFound;
+
+	private ResolvedMethod(String[] parameterTypeNames, Method method, Class[] parameterTypes,
+			TransloaderException classNotFound, String methodNotFound) {
+		this.parameterTypeNames = parameterTypeNames;
+		this.method = method;
+		this.parameterTypes = parameterTypes;
+		clonedParameterIndexes = method == null ? null : getClonedParameterIndexes(parameterTypes);
+		this.classNotFound = classNotFound;
+		this.methodNotFound = methodNotFound;
+	}
+
+	/**
+	 * Works out which parameters could need cloning at all. That excludes those of primitive types, because they are
+	 * always passed boxed, and those of types whose instances are immutable and come from the bootstrap
+	 * <code>ClassLoader</code>, because both are the same in every <code>ClassLoader</code> and so can be passed as
+	 * they are.
+	 */
+	private static int[] getClonedParameterIndexes(Class[] parameterTypes) {
+		int count = 0;
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (!isPassedByReference(parameterTypes[i])) count++;
+		}
+		int[] indexes = new int[count];
+		for (int i = 0, j = 0; i < parameterTypes.length; i++) {
+			if (!isPassedByReference(parameterTypes[i])) indexes[j++] = i;
+		}
+		return indexes;
+	}
+
+	private static boolean isPassedByReference(Class type) {
+		for (int i = 0; i < IMMUTABLE_SHARED_TYPES.length; i++) {
+			if (type == IMMUTABLE_SHARED_TYPES[i]) return true;
+		}
+		return type.isPrimitive();
+	}
+
+	/**
+	 * Finds the method with the given name and parameter type names in the given <code>Class</code>, or the reason it
+	 * cannot be found, remembering it for next time. Once remembered, resolving it again does not allocate anything.
+	 */
+	static ResolvedMethod resolve(Class wrappedClass, String methodName, String[] parameterTypeNames) {
+		Map methodsByName;
+		synchronized (METHODS_BY_CLASS) {
+			methodsByName = (Map) METHODS_BY_CLASS.get(wrappedClass);
+			if (methodsByName == null) METHODS_BY_CLASS.put(wrappedClass, methodsByName = new HashMap());
+			ResolvedMethod resolved = select((ResolvedMethod[]) methodsByName.get(methodName), parameterTypeNames);
+			if (resolved != null) return resolved;
+		}
+		ResolvedMethod resolved = find(wrappedClass, methodName, parameterTypeNames);
+		synchronized (METHODS_BY_CLASS) {
+			ResolvedMethod[] overloads = (ResolvedMethod[]) methodsByName.get(methodName);
+			ResolvedMethod alreadyResolved = select(overloads, parameterTypeNames);
+			if (alreadyResolved != null) return alreadyResolved;
+			methodsByName.put(methodName, add(overloads, resolved));
+		}
+		return resolved;
+	}
+
+	private static ResolvedMethod select(ResolvedMethod[] overloads, String[] parameterTypeNames) {
+		if (overloads == null) return null;
+		for (int i = 0; i < overloads.length; i++) {
+			if (Arrays.equals(overloads[i].parameterTypeNames, parameterTypeNames)) return overloads[i];
+		}
+		return null;
+	}
+
+	private static ResolvedMethod[] add(ResolvedMethod[] overloads, ResolvedMethod resolved) {
+		if (overloads == null) return new ResolvedMethod[] {resolved};
+		ResolvedMethod[] added = new ResolvedMethod[overloads.length + 1];
+		System.arraycopy(overloads, 0, added, 0, overloads.length);
+		added[overloads.length] = resolved;
+		return added;
+	}
+
+	private static ResolvedMethod find(Class wrappedClass, String methodName, String[] parameterTypeNames) {
+		// the names are copied, as whoever gave them could change them afterwards
+		String[] names = (String[]) parameterTypeNames.clone();
+		Class[] parameterTypes;
+		try {
+			parameterTypes = ClassWrapper.getClasses(names, getClassLoader(wrappedClass));
+		} catch (TransloaderException e) {
+			return new ResolvedMethod(names, null, null, e, null);
+		}
+		try {
+			return new ResolvedMethod(names, wrappedClass.getMethod(methodName, parameterTypes), parameterTypes, null,
+					null);
+		} catch (NoSuchMethodException e) {
+			return new ResolvedMethod(names, null, parameterTypes, null, e.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the <code>ClassLoader</code> of the given <code>Class</code>, or the system <code>ClassLoader</code> for
+	 * <code>Class</code>es loaded by the bootstrap <code>ClassLoader</code>, which are visible through it.
+	 */
+	static ClassLoader getClassLoader(Class clazz) {
+		ClassLoader classLoader = clazz.getClassLoader();
+		return classLoader == null ? ClassLoader.getSystemClassLoader() : classLoader;
+	}
+
+	/**
+	 * Gets the <code>Method</code> found.
+	 * 
+	 * @return the <code>Method</code>
+	 * @throws TransloaderException if one of the parameter types could not be found
+	 * @throws NoSuchMethodException if there is no such <code>Method</code>
+	 */
+	Method getMethod() throws NoSuchMethodException {
+		// fresh exceptions each time, so that every failure has its own stack trace
+		if (classNotFound != null) {
+			throw new TransloaderException(classNotFound.getMessage(), (Exception) classNotFound.getCause());
+		}
+		if (method == null) throw new NoSuchMethodException(methodNotFound);
+		return method;
+	}
+
+	/**
+	 * Gets the <code>Method</code> found if calls to it never need anything cloned, because its parameters and result
+	 * are all passed as they are, whichever <code>ClassLoader</code> they come from.
+	 * 
+	 * @return the <code>Method</code>, or <code>null</code> if it was not found or calls to it can need cloning
+	 */
+	Method getMethodCalledAsIs() {
+		if (method == null || clonedParameterIndexes.length > 0 || !isPassedByReference(method.getReturnType())) {
+			return null;
+		}
+		return method;
+	}
+
+	Class[] getParameterTypes() {
+		return parameterTypes;
+	}
+
+	/**
+	 * Invokes the <code>Method</code> found on the given target, cloning those of the given parameters which could
+	 * need it together in one go using the given <code>CloningStrategy</code>. The given parameters are never altered.
+	 * If a caller's <code>ClassLoader</code> is given, the result and any exception thrown by the <code>Method</code>
+	 * are cloned back into it.
+	 */
+	Object invoke(Object target, Object[] parameters, CloningStrategy cloner, ClassLoader callerClassLoader)
+			throws Exception {
+		Method targetMethod = getMethod();
+		CloneContext context =
+				callerClassLoader != null && cloner instanceof ReflectionCloningStrategy ? new CloneContext() : null;
+		Object[] clonedParameters = cloneParameters(parameters, getClassLoader(target.getClass()), cloner, context);
+		Object result;
+		try {
+			result = targetMethod.invoke(target, clonedParameters);
+		} catch (InvocationTargetException e) {
+			if (callerClassLoader == null) throw e;
+			throw new InvocationTargetException(cloneBack(e.getTargetException(), callerClassLoader), e.getMessage());
+		}
+		if (callerClassLoader == null || isPassedAsIs(result)) return result;
+		return clone(result, callerClassLoader, cloner, context == null ? null : context.createReverseContext());
+	}
+
+	private Object[] cloneParameters(Object[] parameters, ClassLoader targetClassLoader, CloningStrategy cloner,
+			CloneContext context) throws Exception {
+		if (clonedParameterIndexes.length == 0) return parameters;
+		if (clonedParameterIndexes.length == 1) {
+			// a single parameter needs no array to share its clone history with any others
+			int index = clonedParameterIndexes[0];
+			if (parameters[index] == null) return parameters;
+			Object[] clonedParameters = (Object[]) parameters.clone();
+			clonedParameters[index] = clone(parameters[index], targetClassLoader, cloner, context);
+			return clonedParameters;
+		}
+		Object[] originals = new Object[clonedParameterIndexes.length];
+		for (int i = 0; i < originals.length; i++) {
+			originals[i] = parameters[clonedParameterIndexes[i]];
+		}
+		Object[] clones = (Object[]) clone(originals, targetClassLoader, cloner, context);
+		Object[] clonedParameters = (Object[]) parameters.clone();
+		for (int i = 0; i < clones.length; i++) {
+			clonedParameters[clonedParameterIndexes[i]] = clones[i];
+		}
+		return clonedParameters;
+	}
+
+	/**
+	 * Clones the parameters of several invocations of resolved methods in one go using the given
+	 * <code>CloningStrategy</code>, so that an object given to more than one of them is cloned only once and the
+	 * same clone is passed to each. The given parameters are never altered.
+	 */
+	static Object[][] cloneParametersOfAll(ResolvedMethod[] methods, Object[][] parameters,
+			ClassLoader targetClassLoader, CloningStrategy cloner) throws Exception {
+		int count = 0;
+		for (int i = 0; i < methods.length; i++) {
+			count += methods[i].clonedParameterIndexes.length;
+		}
+		Object[] originals = new Object[count];
+		for (int i = 0, k = 0; i < methods.length; i++) {
+			int[] indexes = methods[i].clonedParameterIndexes;
+			for (int j = 0; j < indexes.length; j++) {
+				originals[k++] = parameters[i][indexes[j]];
+			}
+		}
+		Object[] clones = count == 0 ? originals : (Object[]) cloner.cloneObjectUsingClassLoader(originals,
+				targetClassLoader);
+		Object[][] clonedParameters = new Object[methods.length][];
+		for (int i = 0, k = 0; i < methods.length; i++) {
+			int[] indexes = methods[i].clonedParameterIndexes;
+			clonedParameters[i] = indexes.length == 0 ? parameters[i] : (Object[]) parameters[i].clone();
+			for (int j = 0; j < indexes.length; j++) {
+				clonedParameters[i][indexes[j]] = clones[k++];
+			}
+		}
+		return clonedParameters;
+	}
+
+	/**
+	 * Invokes the <code>Method</code> found on the given target with parameters which have already been cloned.
+	 */
+	Object invokeWithClonedParameters(Object target, Object[] clonedParameters) throws Exception {
+		return getMethod().invoke(target, clonedParameters);
+	}
+
+	private static Object clone(Object original, ClassLoader targetClassLoader, CloningStrategy cloner,
+			CloneContext context) throws Exception {
+		if (context == null) return cloner.cloneObjectUsingClassLoader(original, targetClassLoader);
+		return ((ReflectionCloningStrategy) cloner).cloneObjectUsingClassLoader(original, targetClassLoader, context);
+	}
+
+	/**
+	 * Whether or not a result can be returned to any <code>ClassLoader</code> without cloning: <code>null</code>,
+	 * primitives (which are returned boxed) and instances of the same immutable types as parameters passed as they are.
+	 */
+	private boolean isPassedAsIs(Object result) {
+		return result == null || method.getReturnType().isPrimitive() || isPassedByReference(result.getClass());
+	}
+
+	/**
+	 * Clones an exception thrown by the <code>Method</code> back into the caller's <code>ClassLoader</code> using
+	 * serialization, which every <code>Throwable</code> supports and which keeps its stack trace intact. If that
+	 * fails, the caller gets the exception as it is.
+	 */
+	static Throwable cloneBack(Throwable thrown, ClassLoader callerClassLoader) {
+		try {
+			return (Throwable) EXCEPTION_CLONER.cloneObjectUsingClassLoader(thrown, callerClassLoader);
+		} catch (Exception e) {
+			return thrown;
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.googlecode.transloader;
+
+/**
+ * The strategy interface by which {@link ObjectWrapper}s run their asynchronous tasks, such as those started by
+ * {@link ObjectWrapper#invokeAsync(InvocationDescription, TaskRunner)}. Any executor or thread pool can be adapted to
+ * it.
+ */
+public interface TaskRunner {
+	/**
+	 * The implementation which runs every task in a new daemon <code>Thread</code> of its own, so that no task ever
+	 * waits for another.
+	 */
+	TaskRunner NEW_THREAD_PER_TASK = new NewThreadTaskRunner();
+
+	/**
+	 * Runs the given task, either straight away or at some later time, in whichever <code>Thread</code> the
+	 * implementation chooses.
+	 * 
+	 * @param task the task to run
+	 */
+	void run(Runnable task);
+}
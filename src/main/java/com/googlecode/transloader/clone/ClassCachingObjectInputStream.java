@@ -0,0 +1,72 @@
+package com.googlecode.transloader.clone;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamClass;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.collections.map.AbstractReferenceMap;
+import org.apache.commons.collections.map.ReferenceIdentityMap;
+import org.apache.commons.io.input.ClassLoaderObjectInputStream;
+
+/**
+ * A {@link ClassLoaderObjectInputStream} which remembers the <code>Class</code> it resolved for each class descriptor,
+ * and the proxy <code>Class</code> for each list of <code>interface</code> names, for as long as both the
+ * <code>Class</code> and the <code>ClassLoader</code> it was resolved with are alive. Every descriptor after the first
+ * with the same name, whether later in the same stream or in another stream deserializing with the same
+ * <code>ClassLoader</code>, costs a single lookup.
+ */
+final class ClassCachingObjectInputStream extends ClassLoaderObjectInputStream {
+	// ClassLoaders are only weakly referenced and so are the Classes resolved with them, so nothing is ever kept from
+	// being garbage collected
+	private static final Map CLASSES_BY_CLASS_LOADER =
+			new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.HARD);
+
+	private final Map classesByName;
+
+	ClassCachingObjectInputStream(ClassLoader classLoader, InputStream input) throws IOException {
+		super(classLoader, input);
+		synchronized (CLASSES_BY_CLASS_LOADER) {
+			Map classes = (Map) CLASSES_BY_CLASS_LOADER.get(classLoader);
+			if (classes == null) CLASSES_BY_CLASS_LOADER.put(classLoader, classes = new HashMap());
+			classesByName = classes;
+		}
+	}
+
+	protected Class resolveClass(ObjectStreamClass descriptor) throws IOException, ClassNotFoundException {
+		String name = descriptor.getName();
+		Class resolved = getResolved(name);
+		if (resolved == null) {
+			resolved = super.resolveClass(descriptor);
+			putResolved(name, resolved);
+		}
+		return resolved;
+	}
+
+	protected Class resolveProxyClass(String[] interfaceNames) throws IOException, ClassNotFoundException {
+		// a List of names never equals the name of a Class, so both can be remembered together
+		Object key = Arrays.asList(interfaceNames);
+		Class resolved = getResolved(key);
+		if (resolved == null) {
+			resolved = super.resolveProxyClass(interfaceNames);
+			putResolved(key, resolved);
+		}
+		return resolved;
+	}
+
+	private Class getResolved(Object key) {
+		synchronized (classesByName) {
+			WeakReference reference = (WeakReference) classesByName.get(key);
+			return reference == null ? null : (Class) reference.get();
+		}
+	}
+
+	private void putResolved(Object key, Class resolved) {
+		synchronized (classesByName) {
+			classesByName.put(key, new WeakReference(resolved));
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.googlecode.transloader.clone;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A growable buffer into which object graphs are serialized and from which they are then deserialized again, without
+ * the bytes ever being copied out of it. Buffers are pooled, so that their memory is reused from one clone to the next
+ * instead of being allocated, grown and thrown away again every time. Buffers which have grown very big are not
+ * pooled, so that one big object graph does not keep its memory held long after it has been cloned.
+ */
+final class SerializationBuffer extends OutputStream {
+	private static final int INITIAL_CAPACITY = 4096;
+	private static final int MAXIMUM_RETAINED_CAPACITY = 1024 * 1024;
+	private static final int MAXIMUM_POOL_SIZE = 16;
+	private static final SerializationBuffer[] POOL = new SerializationBuffer[MAXIMUM_POOL_SIZE];
+	private static int pooledCount;
+
+	private byte[] bytes = new byte[INITIAL_CAPACITY];
+	private int count;
+
+	private SerializationBuffer() {
+	}
+
+	static SerializationBuffer acquire() {
+		synchronized (POOL) {
+			if (pooledCount == 0) return new SerializationBuffer();
+			SerializationBuffer buffer = POOL[--pooledCount];
+			POOL[pooledCount] = null;
+			return buffer;
+		}
+	}
+
+	static void release(SerializationBuffer buffer) {
+		if (buffer.bytes.length > MAXIMUM_RETAINED_CAPACITY) return;
+		buffer.count = 0;
+		synchronized (POOL) {
+			if (pooledCount < MAXIMUM_POOL_SIZE) POOL[pooledCount++] = buffer;
+		}
+	}
+
+	public void write(int value) {
+		ensureCapacity(count + 1);
+		bytes[count++] = (byte) value;
+	}
+
+	public void write(byte[] source, int offset, int length) {
+		ensureCapacity(count + length);
+		System.arraycopy(source, offset, bytes, count, length);
+		count += length;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= bytes.length) return;
+		byte[] grown = new byte[Math.max(capacity, bytes.length * 2)];
+		System.arraycopy(bytes, 0, grown, 0, count);
+		bytes = grown;
+	}
+
+	/**
+	 * Gets a stream of everything written so far, read straight from the buffer. It is only valid until the buffer is
+	 * written to again or released.
+	 */
+	InputStream getInputStream() {
+		return new ByteArrayInputStream(bytes, 0, count);
+	}
+}
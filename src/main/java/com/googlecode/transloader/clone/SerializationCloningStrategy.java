@@ -1,10 +1,10 @@
 package com.googlecode.transloader.clone;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
-import org.apache.commons.io.input.ClassLoaderObjectInputStream;
 import org.apache.commons.lang.SerializationException;
 import org.apache.commons.lang.SerializationUtils;
 
@@ -12,10 +12,45 @@ import com.googlecode.transloader.Assert;
 
 /**
  * A <code>CloningStrategy</code> that uses Java Serialization as its mechanism.
+ * <p>
+ * By default, the whole object graph is serialized into a pooled buffer before any of it is deserialized. Given a
+ * pipe capacity at construction, it instead streams the serialized bytes from a separate <code>Thread</code> through a
+ * pipe of that capacity straight into deserialization, which then proceeds at the same time as serialization. This
+ * bounds the memory needed to no more than the capacity of the pipe, however big the object graph, at the cost of
+ * starting a <code>Thread</code> for each clone, so it suits big object graphs rather than small ones.
+ * </p>
+ * <p>
+ * Either way, the <code>Class</code> for each class descriptor deserialized is only resolved once for each target
+ * <code>ClassLoader</code> and then remembered for as long as neither is garbage collected.
+ * </p>
  * 
  * @author Jeremy Wales
  */
 public final class SerializationCloningStrategy implements CloningStrategy {
+	private final int pipeCapacity;
+
+	/**
+	 * Constructs a new <code>SerializationCloningStrategy</code> which serializes each object graph completely before
+	 * deserializing it.
+	 */
+	public SerializationCloningStrategy() {
+		pipeCapacity = 0;
+	}
+
+	/**
+	 * Constructs a new <code>SerializationCloningStrategy</code> which streams each object graph from serialization
+	 * into deserialization through a pipe with the given capacity.
+	 * 
+	 * @param pipeCapacity the number of bytes the pipe can hold
+	 * @throws IllegalArgumentException if <code>pipeCapacity</code> is not positive
+	 */
+	public SerializationCloningStrategy(int pipeCapacity) {
+		if (pipeCapacity <= 0) {
+			throw new IllegalArgumentException("Expecting a positive pipe capacity but received " + pipeCapacity + ".");
+		}
+		this.pipeCapacity = pipeCapacity;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * 
@@ -27,7 +62,74 @@ public final class SerializationCloningStrategy implements CloningStrategy {
 	public Object cloneObjectUsingClassLoader(Object original, ClassLoader targetClassLoader)
 			throws ClassCastException, SerializationException, IOException, ClassNotFoundException {
 		Assert.areNotNull(original, targetClassLoader);
-		byte[] serializedOriginal = SerializationUtils.serialize((Serializable) original);
-		return new ClassLoaderObjectInputStream(targetClassLoader, new ByteArrayInputStream(serializedOriginal)).readObject();
+		Serializable serializable = (Serializable) original;
+		if (pipeCapacity > 0) return cloneThroughPipe(serializable, targetClassLoader);
+		SerializationBuffer buffer = SerializationBuffer.acquire();
+		try {
+			SerializationUtils.serialize(serializable, buffer);
+			return new ClassCachingObjectInputStream(targetClassLoader, buffer.getInputStream()).readObject();
+		} finally {
+			SerializationBuffer.release(buffer);
+		}
+	}
+
+	private Object cloneThroughPipe(Serializable original, ClassLoader targetClassLoader) throws IOException,
+			ClassNotFoundException {
+		StreamPipe pipe = new StreamPipe(pipeCapacity);
+		Serializer serializer = new Serializer(original, pipe);
+		Thread serializingThread = new Thread(serializer, "Transloader serialization");
+		serializingThread.setDaemon(true);
+		serializingThread.start();
+		try {
+			return new ClassCachingObjectInputStream(targetClassLoader, pipe.getInputStream()).readObject();
+		} catch (IOException e) {
+			// deserialization usually only fails because serialization failed first, which is then what to report
+			pipe.closeInput();
+			throw serializer.getFailureAfterFinishing(serializingThread, e);
+		} finally {
+			pipe.closeInput();
+		}
+	}
+
+	/**
+	 * Serializes an object graph into a pipe, remembering what went wrong if it fails.
+	 */
+	private static final class Serializer implements Runnable {
+		private final Serializable original;
+		private final StreamPipe pipe;
+		private Throwable failure;
+
+		Serializer(Serializable original, StreamPipe pipe) {
+			this.original = original;
+			this.pipe = pipe;
+		}
+
+		public void run() {
+			try {
+				ObjectOutputStream output = new ObjectOutputStream(pipe.getOutputStream());
+				output.writeObject(original);
+				output.flush();
+			} catch (Throwable e) {
+				synchronized (this) {
+					failure = e;
+				}
+			} finally {
+				pipe.closeOutput();
+			}
+		}
+
+		IOException getFailureAfterFinishing(Thread serializingThread, IOException deserializationFailure) {
+			try {
+				serializingThread.join();
+			} catch (InterruptedException e) {
+				return new InterruptedIOException("Interrupted while waiting for serialization to finish.");
+			}
+			synchronized (this) {
+				if (failure instanceof Error) throw (Error) failure;
+				if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+				if (failure != null) throw new SerializationException(failure);
+			}
+			return deserializationFailure;
+		}
 	}
 }
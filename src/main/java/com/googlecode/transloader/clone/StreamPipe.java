@@ -0,0 +1,162 @@
+package com.googlecode.transloader.clone;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A bounded buffer through which bytes written by one <code>Thread</code> are read by another, as soon as they are
+ * written. The writer waits whenever the buffer is full and the reader whenever it is empty, so no more than the
+ * capacity of the buffer is ever held, however many bytes pass through. Either side can close its end at any time,
+ * after which the other side gets no more than what it would from a closed stream.
+ */
+final class StreamPipe {
+	private final Object lock = new Object();
+	private final byte[] buffer;
+	private int readPosition;
+	private int count;
+	private boolean inputClosed;
+	private boolean outputClosed;
+
+	StreamPipe(int capacity) {
+		buffer = new byte[capacity];
+	}
+
+	InputStream getInputStream() {
+		return new InputStream() {
+			public int read() throws IOException {
+				return StreamPipe.this.read();
+			}
+
+			public int read(byte[] bytes, int offset, int length) throws IOException {
+				return StreamPipe.this.read(bytes, offset, length);
+			}
+
+			public int available() {
+				synchronized (lock) {
+					return count;
+				}
+			}
+
+			public void close() {
+				closeInput();
+			}
+		};
+	}
+
+	OutputStream getOutputStream() {
+		return new OutputStream() {
+			public void write(int value) throws IOException {
+				StreamPipe.this.write(value);
+			}
+
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				StreamPipe.this.write(bytes, offset, length);
+			}
+
+			public void close() {
+				closeOutput();
+			}
+		};
+	}
+
+	void closeInput() {
+		synchronized (lock) {
+			inputClosed = true;
+			lock.notifyAll();
+		}
+	}
+
+	void closeOutput() {
+		synchronized (lock) {
+			outputClosed = true;
+			lock.notifyAll();
+		}
+	}
+
+	private int read() throws IOException {
+		synchronized (lock) {
+			if (!awaitReadable()) return -1;
+			int value = buffer[readPosition] & 0xFF;
+			readPosition = (readPosition + 1) % buffer.length;
+			count--;
+			lock.notifyAll();
+			return value;
+		}
+	}
+
+	private int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) return 0;
+		synchronized (lock) {
+			if (!awaitReadable()) return -1;
+			int read = Math.min(length, count);
+			int firstPart = Math.min(read, buffer.length - readPosition);
+			System.arraycopy(buffer, readPosition, bytes, offset, firstPart);
+			System.arraycopy(buffer, 0, bytes, offset + firstPart, read - firstPart);
+			readPosition = (readPosition + read) % buffer.length;
+			count -= read;
+			lock.notifyAll();
+			return read;
+		}
+	}
+
+	private void write(int value) throws IOException {
+		synchronized (lock) {
+			awaitWritable();
+			buffer[(readPosition + count) % buffer.length] = (byte) value;
+			count++;
+			lock.notifyAll();
+		}
+	}
+
+	private void write(byte[] bytes, int offset, int length) throws IOException {
+		synchronized (lock) {
+			while (length > 0) {
+				awaitWritable();
+				int written = Math.min(length, buffer.length - count);
+				int writePosition = (readPosition + count) % buffer.length;
+				int firstPart = Math.min(written, buffer.length - writePosition);
+				System.arraycopy(bytes, offset, buffer, writePosition, firstPart);
+				System.arraycopy(bytes, offset + firstPart, buffer, 0, written - firstPart);
+				count += written;
+				offset += written;
+				length -= written;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until there is something to read, unless either end is closed first.
+	 * 
+	 * @return <code>false</code> if there is nothing to read and never will be
+	 */
+	private boolean awaitReadable() throws IOException {
+		while (count == 0) {
+			if (outputClosed || inputClosed) return false;
+			await();
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until there is room to write into, failing if either end is closed first.
+	 */
+	private void awaitWritable() throws IOException {
+		while (true) {
+			if (inputClosed) throw new IOException("The reading end of the pipe has been closed.");
+			if (outputClosed) throw new IOException("The writing end of the pipe has been closed.");
+			if (count < buffer.length) return;
+			await();
+		}
+	}
+
+	private void await() throws IOException {
+		try {
+			lock.wait();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting on the pipe.");
+		}
+	}
+}
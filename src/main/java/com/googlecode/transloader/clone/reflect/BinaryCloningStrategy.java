@@ -0,0 +1,76 @@
+package com.googlecode.transloader.clone.reflect;
+
+import com.googlecode.transloader.Assert;
+import com.googlecode.transloader.clone.CloningStrategy;
+
+/**
+ * A <code>CloningStrategy</code> which clones whole object graphs by encoding them into a compact binary form of its
+ * own and decoding that using the target <code>ClassLoader</code>. Like {@link CloningStrategy#MAXIMAL}, it clones
+ * every object in the graph through the fields found by {@link FieldReflector}, so the objects need not be
+ * {@link java.io.Serializable}. Unlike {@link com.googlecode.transloader.clone.SerializationCloningStrategy}, it
+ * writes no class descriptors, block data or names into the encoded form: each <code>Class</code> is described once
+ * in a table kept alongside it, primitives are written raw and objects reached again are referred back to by number.
+ * 
+ * @see BinaryGraph
+ */
+public final class BinaryCloningStrategy implements CloningStrategy {
+	private final InstantiationStrategy instantiator;
+	private final CloningStrategy fallbackCloner;
+
+	/**
+	 * Constructs a new <code>BinaryCloningStrategy</code> with its dependencies injected.
+	 * 
+	 * @param instantiator the strategy by which to instantiate normal objects (as opposed to arrays, for which
+	 *            standard reflection is always adequate)
+	 * @param fallbackCloningStrategy the <code>CloningStrategy</code> by which to clone objects whose fields cannot be
+	 *            reflected on
+	 */
+	public BinaryCloningStrategy(InstantiationStrategy instantiator, CloningStrategy fallbackCloningStrategy) {
+		Assert.areNotNull(instantiator, fallbackCloningStrategy);
+		this.instantiator = instantiator;
+		fallbackCloner = fallbackCloningStrategy;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This implementation walks the given object graph breadth first, so that graphs of any depth can be cloned
+	 * without exhausting the call stack, and handles cyclic and shared references by referring back to objects already
+	 * encoded. <code>String</code>s, boxed primitives and <code>Class</code>es are cloned by value. Objects whose
+	 * fields cannot be reflected on, along with everything they reference, are cloned by the fallback
+	 * <code>CloningStrategy</code> instead. The buffer the graph is encoded into is borrowed from a small shared pool
+	 * just for the duration of the call.
+	 * </p>
+	 * 
+	 * @return a completely cloned object graph
+	 * @throws Exception can throw any <code>Exception</code> thrown while reflecting on the original objects, loading
+	 *             and instantiating their clones or by the fallback <code>CloningStrategy</code>
+	 */
+	public Object cloneObjectUsingClassLoader(Object original, ClassLoader targetClassLoader) throws Exception {
+		Assert.areNotNull(original, targetClassLoader);
+		BinaryGraph graph = BinaryGraph.acquire();
+		try {
+			graph.encode(original);
+			return graph.decode(targetClassLoader, instantiator, fallbackCloner);
+		} finally {
+			BinaryGraph.release(graph);
+		}
+	}
+
+	/**
+	 * Walks the given object graph once, in the same way as {@link #cloneObjectUsingClassLoader(Object, ClassLoader)},
+	 * and keeps it as a {@link GraphSnapshot} that can then be materialized in any number of <code>ClassLoader</code>s,
+	 * at the same time if need be.
+	 * 
+	 * @param original the original object graph
+	 * @return a snapshot of the object graph
+	 * @throws Exception can throw any <code>Exception</code> thrown while reflecting on the original objects
+	 */
+	public GraphSnapshot snapshot(Object original) throws Exception {
+		Assert.isNotNull(original);
+		BinaryGraph graph = new BinaryGraph();
+		graph.encode(original);
+		graph.trim();
+		return new GraphSnapshot(graph, instantiator, fallbackCloner);
+	}
+}
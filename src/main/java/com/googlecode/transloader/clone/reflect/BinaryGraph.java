@@ -0,0 +1,610 @@
+package com.googlecode.transloader.clone.reflect;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.googlecode.transloader.ClassWrapper;
+import com.googlecode.transloader.clone.CloningStrategy;
+
+/**
+ * An object graph encoded by {@link BinaryCloningStrategy} into a compact form which references nothing from the
+ * <code>ClassLoader</code>s of the original objects, so that it can be decoded into any other.
+ * <p>
+ * The objects are numbered in the order they are first reached, walking the graph breadth first. Each reference is
+ * written as a single number: <code>0</code> for <code>null</code>, an even number for an object already numbered or
+ * an odd number for a new object, giving the index of its {@link ClassLayout} in a table kept alongside the bytes.
+ * Strings, <code>Class</code>es, boxed primitives and the lengths of arrays follow the reference to a new object
+ * straight away, so that every object can be instantiated as soon as it is reached; the content of the other objects
+ * is written after the root, object by object in the order they were numbered. Primitives are written raw. Objects
+ * whose fields cannot be reflected on are not encoded at all but kept as they are, to be cloned by a fallback
+ * <code>CloningStrategy</code> when decoding.
+ * </p>
+ * <p>
+ * Encoding reuses one <code>BinaryGraph</code> from a small shared pool, unless the graph is to be kept, in which
+ * case it is trimmed afterwards. Once encoded, a graph is only read from by
+ * {@link #decode(ClassLoader, InstantiationStrategy, CloningStrategy)}, which can be called by any number of
+ * <code>Thread</code>s at once.
+ * </p>
+ */
+final class BinaryGraph {
+	private static final int NULL = 0;
+	private static final int MAXIMUM_POOL_SIZE = 16;
+	private static final int INITIAL_CAPACITY = 4096;
+	private static final int MAXIMUM_RETAINED_CAPACITY = 1024 * 1024;
+	private static final int MAXIMUM_RETAINED_HISTORY_SIZE = 1024;
+	private static final BinaryGraph[] POOL = new BinaryGraph[MAXIMUM_POOL_SIZE];
+	private static int pooledCount;
+
+	private final List layouts = new ArrayList();
+	private final OpenAddressingIdentityMap layoutIndexes = new OpenAddressingIdentityMap();
+	private final List resolvedLayouts = new ArrayList();
+	private final OpenAddressingIdentityMap handles = new OpenAddressingIdentityMap();
+	private final List originals = new ArrayList();
+	private final List fallbackOriginals = new ArrayList();
+	private int[] layoutIndexesByHandle = new int[16];
+	private byte[] bytes = new byte[INITIAL_CAPACITY];
+	private int count;
+	private int objectCount;
+
+	static BinaryGraph acquire() {
+		synchronized (POOL) {
+			if (pooledCount == 0) return new BinaryGraph();
+			BinaryGraph graph = POOL[--pooledCount];
+			POOL[pooledCount] = null;
+			return graph;
+		}
+	}
+
+	static void release(BinaryGraph graph) {
+		graph.reset();
+		synchronized (POOL) {
+			if (pooledCount < MAXIMUM_POOL_SIZE) POOL[pooledCount++] = graph;
+		}
+	}
+
+	private void reset() {
+		layouts.clear();
+		layoutIndexes.clear();
+		resolvedLayouts.clear();
+		handles.clear(MAXIMUM_RETAINED_HISTORY_SIZE);
+		originals.clear();
+		fallbackOriginals.clear();
+		if (layoutIndexesByHandle.length > MAXIMUM_RETAINED_HISTORY_SIZE) layoutIndexesByHandle = new int[16];
+		if (bytes.length > MAXIMUM_RETAINED_CAPACITY) bytes = new byte[INITIAL_CAPACITY];
+		count = 0;
+		objectCount = 0;
+	}
+
+	/**
+	 * Encodes the object graph referenced by the given object. Nothing of the original graph is referenced once this
+	 * returns, other than any objects left for the fallback <code>CloningStrategy</code>.
+	 */
+	void encode(Object original) throws Exception {
+		try {
+			writeReference(original);
+			for (int handle = 0; handle < originals.size(); handle++) {
+				writeContent(originals.get(handle), layoutIndexesByHandle[handle]);
+			}
+			objectCount = originals.size();
+		} finally {
+			handles.clear(MAXIMUM_RETAINED_HISTORY_SIZE);
+			originals.clear();
+			layoutIndexes.clear();
+			resolvedLayouts.clear();
+		}
+	}
+
+	private void writeReference(Object value) throws Exception {
+		if (value == null) {
+			writeNumber(NULL);
+			return;
+		}
+		Integer handle = (Integer) handles.get(value);
+		if (handle != null) {
+			writeNumber((handle.intValue() + 1) << 1);
+			return;
+		}
+		int layoutIndex = getLayoutIndex(value.getClass());
+		writeNumber(layoutIndex << 1 | 1);
+		handles.put(value, new Integer(originals.size()));
+		if (originals.size() == layoutIndexesByHandle.length) {
+			int[] grown = new int[layoutIndexesByHandle.length * 2];
+			System.arraycopy(layoutIndexesByHandle, 0, grown, 0, layoutIndexesByHandle.length);
+			layoutIndexesByHandle = grown;
+		}
+		layoutIndexesByHandle[originals.size()] = layoutIndex;
+		originals.add(value);
+		ClassLayout layout = (ClassLayout) layouts.get(layoutIndex);
+		switch (layout.getKind()) {
+		case ClassLayout.STRING:
+			writeString((String) value);
+			break;
+		case ClassLayout.CLASS:
+			writeString(((Class) value).getName());
+			break;
+		case ClassLayout.BOXED:
+			writeBoxed(layout.getValueType(), value);
+			break;
+		case ClassLayout.ARRAY:
+			writeNumber(Array.getLength(value));
+			break;
+		case ClassLayout.FALLBACK:
+			fallbackOriginals.add(value);
+			break;
+		}
+	}
+
+	private int getLayoutIndex(Class type) throws ClassNotFoundException, NoSuchFieldException {
+		Integer index = (Integer) layoutIndexes.get(type);
+		if (index != null) return index.intValue();
+		ClassLayout layout = ClassLayout.of(type);
+		layoutIndexes.put(type, index = new Integer(layouts.size()));
+		layouts.add(layout);
+		resolvedLayouts.add(layout.getKind() == ClassLayout.OBJECT ? layout.resolve(FieldReflector
+				.getClassLoader(type)) : null);
+		return index.intValue();
+	}
+
+	private void writeContent(Object original, int layoutIndex) throws Exception {
+		ClassLayout layout = (ClassLayout) layouts.get(layoutIndex);
+		if (layout.getKind() == ClassLayout.OBJECT) {
+			ClassLayout.Resolved resolved = (ClassLayout.Resolved) resolvedLayouts.get(layoutIndex);
+			for (int i = 0; i < layout.getFieldCount(); i++) {
+				int type = layout.getFieldType(i);
+				Field field = resolved.getField(i);
+				if (type == ClonePlan.REFERENCE) {
+					writeReference(field.get(original));
+				} else {
+					writePrimitiveField(type, field, original);
+				}
+			}
+		} else if (layout.getKind() == ClassLayout.ARRAY) {
+			writeArrayContent(layout.getValueType(), original);
+		}
+	}
+
+	/**
+	 * Writes the value of a primitive field through the typed accessors of <code>Field</code>, so that the value is
+	 * never boxed.
+	 */
+	private void writePrimitiveField(int type, Field field, Object original) throws IllegalAccessException {
+		switch (type) {
+		case ClonePlan.BOOLEAN:
+			writeByte(field.getBoolean(original) ? 1 : 0);
+			break;
+		case ClonePlan.BYTE:
+			writeByte(field.getByte(original));
+			break;
+		case ClonePlan.CHAR:
+			writeShort(field.getChar(original));
+			break;
+		case ClonePlan.SHORT:
+			writeShort(field.getShort(original));
+			break;
+		case ClonePlan.INT:
+			writeInt(field.getInt(original));
+			break;
+		case ClonePlan.LONG:
+			writeLong(field.getLong(original));
+			break;
+		case ClonePlan.FLOAT:
+			writeInt(Float.floatToIntBits(field.getFloat(original)));
+			break;
+		default:
+			writeLong(Double.doubleToLongBits(field.getDouble(original)));
+		}
+	}
+
+	private void writeBoxed(int type, Object value) {
+		switch (type) {
+		case ClonePlan.BOOLEAN:
+			writeByte(((Boolean) value).booleanValue() ? 1 : 0);
+			break;
+		case ClonePlan.BYTE:
+			writeByte(((Byte) value).byteValue());
+			break;
+		case ClonePlan.CHAR:
+			writeShort(((Character) value).charValue());
+			break;
+		case ClonePlan.SHORT:
+			writeShort(((Short) value).shortValue());
+			break;
+		case ClonePlan.INT:
+			writeInt(((Integer) value).intValue());
+			break;
+		case ClonePlan.LONG:
+			writeLong(((Long) value).longValue());
+			break;
+		case ClonePlan.FLOAT:
+			writeInt(Float.floatToIntBits(((Float) value).floatValue()));
+			break;
+		default:
+			writeLong(Double.doubleToLongBits(((Double) value).doubleValue()));
+		}
+	}
+
+	private void writeArrayContent(int componentType, Object array) throws Exception {
+		switch (componentType) {
+		case ClonePlan.REFERENCE:
+			Object[] references = (Object[]) array;
+			for (int i = 0; i < references.length; i++) {
+				writeReference(references[i]);
+			}
+			break;
+		case ClonePlan.BOOLEAN:
+			boolean[] booleans = (boolean[]) array;
+			for (int i = 0; i < booleans.length; i++) {
+				writeByte(booleans[i] ? 1 : 0);
+			}
+			break;
+		case ClonePlan.BYTE:
+			byte[] bytesToWrite = (byte[]) array;
+			ensureCapacity(bytesToWrite.length);
+			System.arraycopy(bytesToWrite, 0, bytes, count, bytesToWrite.length);
+			count += bytesToWrite.length;
+			break;
+		case ClonePlan.CHAR:
+			char[] chars = (char[]) array;
+			for (int i = 0; i < chars.length; i++) {
+				writeShort(chars[i]);
+			}
+			break;
+		case ClonePlan.SHORT:
+			short[] shorts = (short[]) array;
+			for (int i = 0; i < shorts.length; i++) {
+				writeShort(shorts[i]);
+			}
+			break;
+		case ClonePlan.INT:
+			int[] ints = (int[]) array;
+			for (int i = 0; i < ints.length; i++) {
+				writeInt(ints[i]);
+			}
+			break;
+		case ClonePlan.LONG:
+			long[] longs = (long[]) array;
+			for (int i = 0; i < longs.length; i++) {
+				writeLong(longs[i]);
+			}
+			break;
+		case ClonePlan.FLOAT:
+			float[] floats = (float[]) array;
+			for (int i = 0; i < floats.length; i++) {
+				writeInt(Float.floatToIntBits(floats[i]));
+			}
+			break;
+		default:
+			double[] doubles = (double[]) array;
+			for (int i = 0; i < doubles.length; i++) {
+				writeLong(Double.doubleToLongBits(doubles[i]));
+			}
+		}
+	}
+
+	private void writeString(String value) {
+		int length = value.length();
+		writeNumber(length);
+		for (int i = 0; i < length; i++) {
+			writeNumber(value.charAt(i));
+		}
+	}
+
+	/**
+	 * Writes a non-negative number in as few bytes as it needs, seven bits at a time.
+	 */
+	private void writeNumber(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			bytes[count++] = (byte) (value & 0x7F | 0x80);
+			value >>>= 7;
+		}
+		bytes[count++] = (byte) value;
+	}
+
+	private void writeByte(int value) {
+		ensureCapacity(1);
+		bytes[count++] = (byte) value;
+	}
+
+	private void writeShort(int value) {
+		ensureCapacity(2);
+		bytes[count++] = (byte) (value >>> 8);
+		bytes[count++] = (byte) value;
+	}
+
+	private void writeInt(int value) {
+		ensureCapacity(4);
+		putInt(value, bytes, count);
+		count += 4;
+	}
+
+	private void writeLong(long value) {
+		ensureCapacity(8);
+		putInt((int) (value >>> 32), bytes, count);
+		putInt((int) value, bytes, count + 4);
+		count += 8;
+	}
+
+	private static void putInt(int value, byte[] destination, int offset) {
+		destination[offset] = (byte) (value >>> 24);
+		destination[offset + 1] = (byte) (value >>> 16);
+		destination[offset + 2] = (byte) (value >>> 8);
+		destination[offset + 3] = (byte) value;
+	}
+
+	private void ensureCapacity(int needed) {
+		if (count + needed <= bytes.length) return;
+		byte[] grown = new byte[Math.max(bytes.length * 2, count + needed)];
+		System.arraycopy(bytes, 0, grown, 0, count);
+		bytes = grown;
+	}
+
+	/**
+	 * Gives up whatever space was reserved for encoding but not used, for a graph which is to be kept rather than
+	 * released.
+	 */
+	void trim() {
+		byte[] trimmedBytes = new byte[count];
+		System.arraycopy(bytes, 0, trimmedBytes, 0, count);
+		bytes = trimmedBytes;
+		int[] trimmedLayoutIndexes = new int[objectCount];
+		System.arraycopy(layoutIndexesByHandle, 0, trimmedLayoutIndexes, 0, objectCount);
+		layoutIndexesByHandle = trimmedLayoutIndexes;
+	}
+
+	/**
+	 * Gets the number of bytes the graph was encoded into, not counting the table of layouts.
+	 */
+	int getSize() {
+		return count;
+	}
+
+	/**
+	 * Decodes a new copy of the encoded graph, loading every <code>Class</code> from the given
+	 * <code>ClassLoader</code>, instantiating every object other than an array with the given
+	 * <code>InstantiationStrategy</code> and cloning the objects which could not be encoded with the given
+	 * <code>CloningStrategy</code>.
+	 */
+	Object decode(ClassLoader classLoader, InstantiationStrategy instantiator, CloningStrategy fallbackCloner)
+			throws Exception {
+		return new Decoder(classLoader, instantiator, fallbackCloner).decode();
+	}
+
+	/**
+	 * The state of one decoding, so that the same graph can be decoded by several at once.
+	 */
+	private final class Decoder {
+		private final ClassLoader classLoader;
+		private final InstantiationStrategy instantiator;
+		private final CloningStrategy fallbackCloner;
+		private final ClassLayout.Resolved[] resolvedLayouts = new ClassLayout.Resolved[layouts.size()];
+		private final Object[] clones = new Object[objectCount];
+		private int cloneCount;
+		private int fallbackCount;
+		private int position;
+
+		Decoder(ClassLoader classLoader, InstantiationStrategy instantiator, CloningStrategy fallbackCloner) {
+			this.classLoader = classLoader;
+			this.instantiator = instantiator;
+			this.fallbackCloner = fallbackCloner;
+		}
+
+		Object decode() throws Exception {
+			Object root = readReference();
+			for (int handle = 0; handle < cloneCount; handle++) {
+				readContent(clones[handle], layoutIndexesByHandle[handle]);
+			}
+			return root;
+		}
+
+		private Object readReference() throws Exception {
+			int number = readNumber();
+			if (number == NULL) return null;
+			if ((number & 1) == 0) return clones[(number >>> 1) - 1];
+			int layoutIndex = number >>> 1;
+			ClassLayout layout = (ClassLayout) layouts.get(layoutIndex);
+			Object clone;
+			switch (layout.getKind()) {
+			case ClassLayout.STRING:
+				clone = readString();
+				break;
+			case ClassLayout.CLASS:
+				clone = ClassWrapper.getClass(readString(), classLoader);
+				break;
+			case ClassLayout.BOXED:
+				clone = readBoxed(layout.getValueType());
+				break;
+			case ClassLayout.ARRAY:
+				clone = Array.newInstance(getResolved(layoutIndex).getType(), readNumber());
+				break;
+			case ClassLayout.FALLBACK:
+				clone = fallbackCloner.cloneObjectUsingClassLoader(fallbackOriginals.get(fallbackCount++), classLoader);
+				break;
+			default:
+				clone = instantiator.newInstance(getResolved(layoutIndex).getType());
+			}
+			clones[cloneCount++] = clone;
+			return clone;
+		}
+
+		private ClassLayout.Resolved getResolved(int layoutIndex) throws Exception {
+			ClassLayout.Resolved resolved = resolvedLayouts[layoutIndex];
+			if (resolved == null) {
+				resolved = ((ClassLayout) layouts.get(layoutIndex)).resolve(classLoader);
+				resolvedLayouts[layoutIndex] = resolved;
+			}
+			return resolved;
+		}
+
+		private void readContent(Object clone, int layoutIndex) throws Exception {
+			ClassLayout layout = (ClassLayout) layouts.get(layoutIndex);
+			if (layout.getKind() == ClassLayout.OBJECT) {
+				ClassLayout.Resolved resolved = getResolved(layoutIndex);
+				for (int i = 0; i < layout.getFieldCount(); i++) {
+					int type = layout.getFieldType(i);
+					Field field = resolved.getField(i);
+					if (type == ClonePlan.REFERENCE) {
+						field.set(clone, readReference());
+					} else {
+						readPrimitiveField(type, field, clone);
+					}
+				}
+			} else if (layout.getKind() == ClassLayout.ARRAY) {
+				readArrayContent(layout.getValueType(), clone);
+			}
+		}
+
+		private void readPrimitiveField(int type, Field field, Object clone) throws IllegalAccessException {
+			switch (type) {
+			case ClonePlan.BOOLEAN:
+				field.setBoolean(clone, readByte() != 0);
+				break;
+			case ClonePlan.BYTE:
+				field.setByte(clone, readByte());
+				break;
+			case ClonePlan.CHAR:
+				field.setChar(clone, (char) readShort());
+				break;
+			case ClonePlan.SHORT:
+				field.setShort(clone, readShort());
+				break;
+			case ClonePlan.INT:
+				field.setInt(clone, readInt());
+				break;
+			case ClonePlan.LONG:
+				field.setLong(clone, readLong());
+				break;
+			case ClonePlan.FLOAT:
+				field.setFloat(clone, Float.intBitsToFloat(readInt()));
+				break;
+			default:
+				field.setDouble(clone, Double.longBitsToDouble(readLong()));
+			}
+		}
+
+		private Object readBoxed(int type) {
+			switch (type) {
+			case ClonePlan.BOOLEAN:
+				return readByte() != 0 ? Boolean.TRUE : Boolean.FALSE;
+			case ClonePlan.BYTE:
+				return new Byte(readByte());
+			case ClonePlan.CHAR:
+				return new Character((char) readShort());
+			case ClonePlan.SHORT:
+				return new Short(readShort());
+			case ClonePlan.INT:
+				return new Integer(readInt());
+			case ClonePlan.LONG:
+				return new Long(readLong());
+			case ClonePlan.FLOAT:
+				return new Float(Float.intBitsToFloat(readInt()));
+			default:
+				return new Double(Double.longBitsToDouble(readLong()));
+			}
+		}
+
+		private void readArrayContent(int componentType, Object array) throws Exception {
+			switch (componentType) {
+			case ClonePlan.REFERENCE:
+				Object[] references = (Object[]) array;
+				for (int i = 0; i < references.length; i++) {
+					references[i] = readReference();
+				}
+				break;
+			case ClonePlan.BOOLEAN:
+				boolean[] booleans = (boolean[]) array;
+				for (int i = 0; i < booleans.length; i++) {
+					booleans[i] = readByte() != 0;
+				}
+				break;
+			case ClonePlan.BYTE:
+				byte[] bytesRead = (byte[]) array;
+				System.arraycopy(bytes, position, bytesRead, 0, bytesRead.length);
+				position += bytesRead.length;
+				break;
+			case ClonePlan.CHAR:
+				char[] chars = (char[]) array;
+				for (int i = 0; i < chars.length; i++) {
+					chars[i] = (char) readShort();
+				}
+				break;
+			case ClonePlan.SHORT:
+				short[] shorts = (short[]) array;
+				for (int i = 0; i < shorts.length; i++) {
+					shorts[i] = readShort();
+				}
+				break;
+			case ClonePlan.INT:
+				int[] ints = (int[]) array;
+				for (int i = 0; i < ints.length; i++) {
+					ints[i] = readInt();
+				}
+				break;
+			case ClonePlan.LONG:
+				long[] longs = (long[]) array;
+				for (int i = 0; i < longs.length; i++) {
+					longs[i] = readLong();
+				}
+				break;
+			case ClonePlan.FLOAT:
+				float[] floats = (float[]) array;
+				for (int i = 0; i < floats.length; i++) {
+					floats[i] = Float.intBitsToFloat(readInt());
+				}
+				break;
+			default:
+				double[] doubles = (double[]) array;
+				for (int i = 0; i < doubles.length; i++) {
+					doubles[i] = Double.longBitsToDouble(readLong());
+				}
+			}
+		}
+
+		private String readString() {
+			char[] chars = new char[readNumber()];
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = (char) readNumber();
+			}
+			return new String(chars);
+		}
+
+		private int readNumber() {
+			int value = 0;
+			int shift = 0;
+			byte next;
+			do {
+				next = bytes[position++];
+				value |= (next & 0x7F) << shift;
+				shift += 7;
+			} while ((next & 0x80) != 0);
+			return value;
+		}
+
+		private byte readByte() {
+			return bytes[position++];
+		}
+
+		private short readShort() {
+			return (short) ((bytes[position++] & 0xFF) << 8 | bytes[position++] & 0xFF);
+		}
+
+		private int readInt() {
+			int value = getInt(position);
+			position += 4;
+			return value;
+		}
+
+		private long readLong() {
+			long value = (long) getInt(position) << 32 | getInt(position + 4) & 0xFFFFFFFFL;
+			position += 8;
+			return value;
+		}
+
+		private int getInt(int offset) {
+			return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8
+					| bytes[offset + 3] & 0xFF;
+		}
+	}
+}
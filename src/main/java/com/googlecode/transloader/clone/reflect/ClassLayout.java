@@ -0,0 +1,170 @@
+package com.googlecode.transloader.clone.reflect;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+import org.apache.commons.collections.map.AbstractReferenceMap;
+import org.apache.commons.collections.map.ReferenceIdentityMap;
+
+import com.googlecode.transloader.ClassWrapper;
+
+/**
+ * What {@link BinaryGraph} records about one <code>Class</code> of the objects it encodes: its name, what kind of
+ * object it is and the descriptions and primitive types of its fields. A layout names everything rather than
+ * referencing it, so it is the same whichever <code>ClassLoader</code> it is decoded with; the <code>Class</code> and
+ * <code>Field</code>s it resolves to in each <code>ClassLoader</code> are only looked up once. A <code>Class</code>
+ * whose fields cannot be reflected on gets a layout of the kind {@link #FALLBACK}, so that its objects can be cloned
+ * some other way.
+ */
+final class ClassLayout {
+	static final int OBJECT = 0;
+	static final int ARRAY = 1;
+	static final int STRING = 2;
+	static final int CLASS = 3;
+	static final int BOXED = 4;
+	static final int FALLBACK = 5;
+
+	// Classes are only weakly referenced and layouts only softly, so they can still be garbage collected
+	private static final Map LAYOUTS_BY_CLASS =
+			new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.SOFT);
+
+	private final String name;
+	private final int kind;
+	private final int valueType;
+	private final String componentTypeName;
+	private final FieldDescription[] descriptions;
+	private final int[] fieldTypes;
+	private final Map resolvedByClassLoader =
+			new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.SOFT);
+
+	private ClassLayout(String name) {
+		this.name = name;
+		kind = FALLBACK;
+		valueType = ClonePlan.REFERENCE;
+		componentTypeName = null;
+		descriptions = new FieldDescription[0];
+		fieldTypes = new int[0];
+	}
+
+	private ClassLayout(Class type) throws ClassNotFoundException, NoSuchFieldException {
+		name = type.getName();
+		if (type.isArray()) {
+			kind = ARRAY;
+			valueType = ClonePlan.getFieldType(type.getComponentType());
+			componentTypeName = type.getComponentType().getName();
+			descriptions = new FieldDescription[0];
+		} else {
+			kind = getKind(type);
+			valueType = kind == BOXED ? getBoxedType(type) : ClonePlan.REFERENCE;
+			componentTypeName = null;
+			descriptions =
+					kind == OBJECT ? FieldReflector.getAllInstanceFieldDescriptions(type) : new FieldDescription[0];
+		}
+		fieldTypes = new int[descriptions.length];
+		ClassLoader classLoader = FieldReflector.getClassLoader(type);
+		for (int i = 0; i < descriptions.length; i++) {
+			Field field = FieldReflector.getAccessibleField(type, classLoader, descriptions[i]);
+			fieldTypes[i] = ClonePlan.getFieldType(field.getType());
+		}
+	}
+
+	private static int getKind(Class type) {
+		if (type == String.class) return STRING;
+		if (type == Class.class) return CLASS;
+		return FieldReflector.PRIMITIVE_WRAPPERS.contains(type) ? BOXED : OBJECT;
+	}
+
+	private static int getBoxedType(Class wrapperType) {
+		if (wrapperType == Boolean.class) return ClonePlan.BOOLEAN;
+		if (wrapperType == Byte.class) return ClonePlan.BYTE;
+		if (wrapperType == Character.class) return ClonePlan.CHAR;
+		if (wrapperType == Short.class) return ClonePlan.SHORT;
+		if (wrapperType == Integer.class) return ClonePlan.INT;
+		if (wrapperType == Long.class) return ClonePlan.LONG;
+		if (wrapperType == Float.class) return ClonePlan.FLOAT;
+		return ClonePlan.DOUBLE;
+	}
+
+	/**
+	 * Gets the layout of the given <code>Class</code>, which is only worked out once, whether or not its fields can be
+	 * reflected on.
+	 */
+	static ClassLayout of(Class type) {
+		synchronized (LAYOUTS_BY_CLASS) {
+			ClassLayout layout = (ClassLayout) LAYOUTS_BY_CLASS.get(type);
+			if (layout != null) return layout;
+		}
+		ClassLayout layout;
+		try {
+			layout = new ClassLayout(type);
+		} catch (Exception e) {
+			layout = new ClassLayout(type.getName());
+		}
+		synchronized (LAYOUTS_BY_CLASS) {
+			LAYOUTS_BY_CLASS.put(type, layout);
+		}
+		return layout;
+	}
+
+	int getKind() {
+		return kind;
+	}
+
+	/**
+	 * Gets the primitive type of the value of a boxed primitive or of the components of an array, which is
+	 * {@link ClonePlan#REFERENCE} for arrays of objects and for every other kind of object.
+	 */
+	int getValueType() {
+		return valueType;
+	}
+
+	int getFieldCount() {
+		return fieldTypes.length;
+	}
+
+	int getFieldType(int fieldIndex) {
+		return fieldTypes[fieldIndex];
+	}
+
+	/**
+	 * Resolves this layout in the given <code>ClassLoader</code>. For arrays, the <code>Class</code> resolved is the
+	 * component type to instantiate arrays with and there are no fields.
+	 */
+	Resolved resolve(ClassLoader classLoader) throws ClassNotFoundException, NoSuchFieldException {
+		synchronized (resolvedByClassLoader) {
+			Resolved resolved = (Resolved) resolvedByClassLoader.get(classLoader);
+			if (resolved != null) return resolved;
+		}
+		Class type = ClassWrapper.getClass(kind == ARRAY ? componentTypeName : name, classLoader);
+		Field[] fields = new Field[descriptions.length];
+		for (int i = 0; i < descriptions.length; i++) {
+			fields[i] = FieldReflector.getAccessibleField(type, classLoader, descriptions[i]);
+		}
+		Resolved resolved = new Resolved(type, fields);
+		synchronized (resolvedByClassLoader) {
+			resolvedByClassLoader.put(classLoader, resolved);
+		}
+		return resolved;
+	}
+
+	/**
+	 * A <code>ClassLayout</code> resolved in one <code>ClassLoader</code>.
+	 */
+	static final class Resolved {
+		private final Class type;
+		private final Field[] fields;
+
+		private Resolved(Class type, Field[] fields) {
+			this.type = type;
+			this.fields = fields;
+		}
+
+		Class getType() {
+			return type;
+		}
+
+		Field getField(int fieldIndex) {
+			return fields[fieldIndex];
+		}
+	}
+}
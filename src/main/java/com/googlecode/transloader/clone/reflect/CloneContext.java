@@ -0,0 +1,123 @@
+package com.googlecode.transloader.clone.reflect;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The state of cloning one or more object graphs to one target <code>ClassLoader</code> with a
+ * {@link ReflectionCloningStrategy}: the history of objects already cloned, the stack of objects whose content is still
+ * being cloned and counts of what has been done. Passing the same <code>CloneContext</code> to several calls of
+ * {@link ReflectionCloningStrategy#cloneObjectUsingClassLoader(Object, ClassLoader, CloneContext)} means objects
+ * referenced from more than one of the graphs are only cloned once, until the context is {@link #reset()}.
+ * <p>
+ * Calls which do not supply a <code>CloneContext</code> borrow one from a small shared pool instead of keeping one per
+ * <code>Thread</code>, so that the memory needed to clone a huge object graph is given back afterwards rather than
+ * being kept for as long as the <code>Thread</code> lives, however many <code>Thread</code>s clone. Instances are not
+ * thread-safe.
+ * </p>
+ */
+public final class CloneContext {
+	private static final int MAXIMUM_POOL_SIZE = 32;
+	private static final int MAXIMUM_RETAINED_HISTORY_SIZE = 1024;
+	private static final int MAXIMUM_RETAINED_STACK_CAPACITY = 256;
+	private static final CloneContext[] POOL = new CloneContext[MAXIMUM_POOL_SIZE];
+	private static int pooledCount;
+
+	private final OpenAddressingIdentityMap cloneHistory = new OpenAddressingIdentityMap();
+	private final CloneStack stack = new CloneStack();
+	private ClassLoader targetClassLoader;
+	private int clonedObjectCount;
+	private int fallbackCount;
+
+	/**
+	 * Gets the number of objects which have been instantiated as clones using this context.
+	 * 
+	 * @return the number of clone instances created
+	 */
+	public int getClonedObjectCount() {
+		return clonedObjectCount;
+	}
+
+	/**
+	 * Gets the number of objects which could not be cloned by reflection using this context and so were cloned by the
+	 * fallback <code>CloningStrategy</code> instead.
+	 * 
+	 * @return the number of times the fallback strategy was used
+	 */
+	public int getFallbackCount() {
+		return fallbackCount;
+	}
+
+	/**
+	 * Forgets everything cloned using this context so far, ready for cloning to any <code>ClassLoader</code> again.
+	 */
+	public void reset() {
+		cloneHistory.clear(MAXIMUM_RETAINED_HISTORY_SIZE);
+		stack.clear(MAXIMUM_RETAINED_STACK_CAPACITY);
+		targetClassLoader = null;
+		clonedObjectCount = 0;
+		fallbackCount = 0;
+	}
+
+	/**
+	 * Creates a new <code>CloneContext</code> for cloning back into the <code>ClassLoader</code>(s) which the
+	 * originals cloned in this context came from, in which every clone made in this context is already known to have
+	 * its original as its own clone. Whatever is cloned back in it therefore references the very originals wherever it
+	 * references their clones, e.g. when the result of a method invoked with cloned parameters references them.
+	 * 
+	 * @return a new context with the reverse of this one's history
+	 */
+	public CloneContext createReverseContext() {
+		CloneContext reverseContext = new CloneContext();
+		for (Iterator entries = cloneHistory.entrySet().iterator(); entries.hasNext();) {
+			Map.Entry entry = (Map.Entry) entries.next();
+			if (entry.getValue() != null) reverseContext.recordClone(entry.getValue(), entry.getKey());
+		}
+		return reverseContext;
+	}
+
+	static CloneContext acquire() {
+		synchronized (POOL) {
+			if (pooledCount == 0) return new CloneContext();
+			CloneContext context = POOL[--pooledCount];
+			POOL[pooledCount] = null;
+			return context;
+		}
+	}
+
+	static void release(CloneContext context) {
+		context.reset();
+		synchronized (POOL) {
+			if (pooledCount < MAXIMUM_POOL_SIZE) POOL[pooledCount++] = context;
+		}
+	}
+
+	void startCloningTo(ClassLoader classLoader) {
+		if (targetClassLoader != null && targetClassLoader != classLoader) {
+			throw new IllegalArgumentException("Expecting to clone using " + targetClassLoader
+					+ " but was asked to use " + classLoader
+					+ ". Reset the CloneContext before using it for another ClassLoader.");
+		}
+		targetClassLoader = classLoader;
+	}
+
+	Object getClone(Object original) {
+		return cloneHistory.get(original);
+	}
+
+	void recordClone(Object original, Object clone) {
+		cloneHistory.put(original, clone);
+	}
+
+	CloneStack getStack() {
+		return stack;
+	}
+
+	void countClonedObject() {
+		clonedObjectCount++;
+	}
+
+	void countFallback() {
+		fallbackCount++;
+	}
+}
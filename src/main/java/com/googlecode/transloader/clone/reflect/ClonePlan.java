@@ -0,0 +1,137 @@
+package com.googlecode.transloader.clone.reflect;
+
+import java.lang.reflect.Field;
+
+import com.googlecode.transloader.ClassWrapper;
+
+/**
+ * Everything {@link ReflectionCloningStrategy} needs to know to clone instances of one <code>Class</code> using one
+ * <code>ClassLoader</code>, resolved once so that it does not have to be looked up again for every instance.
+ */
+final class ClonePlan {
+	private static final Field[] NO_FIELDS = new Field[0];
+	static final int REFERENCE = 0;
+	static final int BOOLEAN = 1;
+	static final int BYTE = 2;
+	static final int CHAR = 3;
+	static final int SHORT = 4;
+	static final int INT = 5;
+	static final int LONG = 6;
+	static final int FLOAT = 7;
+	static final int DOUBLE = 8;
+
+	private final Class originalClass;
+	private final Class cloneClass;
+	private final Field[] originalFields;
+	private final Field[] cloneFields;
+	private final int[] fieldTypes;
+
+	private ClonePlan(Class originalClass, Class cloneClass, Field[] originalFields, Field[] cloneFields) {
+		this.originalClass = originalClass;
+		this.cloneClass = cloneClass;
+		this.originalFields = originalFields;
+		this.cloneFields = cloneFields;
+		fieldTypes = new int[originalFields.length];
+		for (int i = 0; i < originalFields.length; i++) {
+			fieldTypes[i] = getFieldType(originalFields[i].getType());
+		}
+	}
+
+	static int getFieldType(Class declaredType) {
+		if (declaredType == Boolean.TYPE) return BOOLEAN;
+		if (declaredType == Byte.TYPE) return BYTE;
+		if (declaredType == Character.TYPE) return CHAR;
+		if (declaredType == Short.TYPE) return SHORT;
+		if (declaredType == Integer.TYPE) return INT;
+		if (declaredType == Long.TYPE) return LONG;
+		if (declaredType == Float.TYPE) return FLOAT;
+		if (declaredType == Double.TYPE) return DOUBLE;
+		return REFERENCE;
+	}
+
+	/**
+	 * Resolves the plan for cloning instances of the given <code>Class</code> using the given
+	 * <code>ClassLoader</code>. For arrays, the <code>Class</code> of the clone is the component type to instantiate
+	 * the clone array with and there are no fields.
+	 */
+	static ClonePlan resolve(Class originalClass, ClassLoader targetClassLoader) throws ClassNotFoundException,
+			NoSuchFieldException {
+		if (originalClass.isArray()) {
+			Class cloneComponentType =
+					ClassWrapper.getClass(originalClass.getComponentType().getName(), targetClassLoader);
+			return new ClonePlan(originalClass, cloneComponentType, NO_FIELDS, NO_FIELDS);
+		}
+		Class cloneClass = ClassWrapper.getClass(originalClass.getName(), targetClassLoader);
+		FieldDescription[] descriptions = FieldReflector.getAllInstanceFieldDescriptions(originalClass);
+		ClassLoader originalClassLoader = FieldReflector.getClassLoader(originalClass);
+		Field[] originalFields = new Field[descriptions.length];
+		Field[] cloneFields = new Field[descriptions.length];
+		for (int i = 0; i < descriptions.length; i++) {
+			originalFields[i] = FieldReflector.getAccessibleField(originalClass, originalClassLoader, descriptions[i]);
+			cloneFields[i] = FieldReflector.getAccessibleField(cloneClass, targetClassLoader, descriptions[i]);
+		}
+		return new ClonePlan(originalClass, cloneClass, originalFields, cloneFields);
+	}
+
+	Class getCloneClass() {
+		return cloneClass;
+	}
+
+	int getFieldCount() {
+		return originalFields.length;
+	}
+
+	boolean isPrimitive(int fieldIndex) {
+		return fieldTypes[fieldIndex] != REFERENCE;
+	}
+
+	/**
+	 * Copies the value of a primitive field from the original to the clone through the typed accessors of
+	 * <code>Field</code>, so that the value is never boxed.
+	 */
+	void copyPrimitiveValue(Object original, Object clone, int fieldIndex) throws IllegalAccessException {
+		Field originalField = originalFields[fieldIndex];
+		Field cloneField = getFieldsOf(clone)[fieldIndex];
+		switch (fieldTypes[fieldIndex]) {
+		case BOOLEAN:
+			cloneField.setBoolean(clone, originalField.getBoolean(original));
+			break;
+		case BYTE:
+			cloneField.setByte(clone, originalField.getByte(original));
+			break;
+		case CHAR:
+			cloneField.setChar(clone, originalField.getChar(original));
+			break;
+		case SHORT:
+			cloneField.setShort(clone, originalField.getShort(original));
+			break;
+		case INT:
+			cloneField.setInt(clone, originalField.getInt(original));
+			break;
+		case LONG:
+			cloneField.setLong(clone, originalField.getLong(original));
+			break;
+		case FLOAT:
+			cloneField.setFloat(clone, originalField.getFloat(original));
+			break;
+		case DOUBLE:
+			cloneField.setDouble(clone, originalField.getDouble(original));
+			break;
+		default:
+			throw new IllegalArgumentException("Field '" + originalField + "' is not primitive.");
+		}
+	}
+
+	Object getValue(Object original, int fieldIndex) throws IllegalAccessException {
+		return originalFields[fieldIndex].get(original);
+	}
+
+	void setValue(Object clone, int fieldIndex, Object value) throws IllegalAccessException {
+		getFieldsOf(clone)[fieldIndex].set(clone, value);
+	}
+
+	private Field[] getFieldsOf(Object clone) {
+		// an original which was not itself cloned still has its content cloned in place
+		return clone.getClass() == originalClass ? originalFields : cloneFields;
+	}
+}
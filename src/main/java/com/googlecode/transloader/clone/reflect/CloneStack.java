@@ -0,0 +1,99 @@
+package com.googlecode.transloader.clone.reflect;
+
+/**
+ * The objects whose content {@link ReflectionCloningStrategy} is part way through cloning, kept in parallel arrays so
+ * that the depth of an object graph is limited by the heap rather than by the call stack.
+ */
+final class CloneStack {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private Object[] originals;
+	private Object[] clones;
+	private ClonePlan[] plans;
+	private int[] positions;
+	private int size;
+
+	CloneStack() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	int size() {
+		return size;
+	}
+
+	void push(Object original, Object clone, ClonePlan plan, int position) {
+		if (size == originals.length) grow();
+		originals[size] = original;
+		clones[size] = clone;
+		plans[size] = plan;
+		positions[size] = position;
+		size++;
+	}
+
+	void pop() {
+		size--;
+		originals[size] = null;
+		clones[size] = null;
+		plans[size] = null;
+	}
+
+	/**
+	 * Pops everything pushed since this stack was the given size.
+	 */
+	void popTo(int bottom) {
+		while (size > bottom) {
+			pop();
+		}
+	}
+
+	Object getOriginal() {
+		return originals[size - 1];
+	}
+
+	Object getClone() {
+		return clones[size - 1];
+	}
+
+	ClonePlan getPlan() {
+		return plans[size - 1];
+	}
+
+	int getPosition() {
+		return positions[size - 1];
+	}
+
+	void setPosition(int position) {
+		positions[size - 1] = position;
+	}
+
+	/**
+	 * Empties this stack, giving up its arrays for smaller ones if they have grown beyond the given capacity.
+	 */
+	void clear(int maximumRetainedCapacity) {
+		if (originals.length > Math.max(maximumRetainedCapacity, INITIAL_CAPACITY)) {
+			allocate(INITIAL_CAPACITY);
+			size = 0;
+		} else {
+			popTo(0);
+		}
+	}
+
+	private void allocate(int capacity) {
+		originals = new Object[capacity];
+		clones = new Object[capacity];
+		plans = new ClonePlan[capacity];
+		positions = new int[capacity];
+	}
+
+	private void grow() {
+		Object[] oldOriginals = originals;
+		Object[] oldClones = clones;
+		ClonePlan[] oldPlans = plans;
+		int[] oldPositions = positions;
+		allocate(oldOriginals.length * 2);
+		System.arraycopy(oldOriginals, 0, originals, 0, size);
+		System.arraycopy(oldClones, 0, clones, 0, size);
+		System.arraycopy(oldPlans, 0, plans, 0, size);
+		System.arraycopy(oldPositions, 0, positions, 0, size);
+	}
+}
@@ -2,8 +2,6 @@ package com.googlecode.transloader.clone.reflect;
 
 import java.util.Map;
 
-import org.apache.commons.collections.map.IdentityMap;
-
 import com.googlecode.transloader.Assert;
 
 /**
@@ -13,6 +11,8 @@ import com.googlecode.transloader.Assert;
  * @author Jeremy Wales
  */
 public final class CyclicReferenceSafeTraverser {
+	private static final int MAXIMUM_RETAINED_HISTORY_SIZE = 64;
+
 	private final ThreadLocal referenceHistoryForThread = new ThreadLocal();
 
 	/**
@@ -26,20 +26,23 @@ public final class CyclicReferenceSafeTraverser {
 	 */
 	public Object performWithoutFollowingCircles(Traversal traversal, Object currentObjectInGraph) throws Exception {
 		Assert.areNotNull(traversal, currentObjectInGraph);
-		Map referenceHistory = getReferenceHistory();
+		OpenAddressingIdentityMap referenceHistory = getReferenceHistory();
 		if (referenceHistory.containsKey(currentObjectInGraph)) return referenceHistory.get(currentObjectInGraph);
 		referenceHistory.put(currentObjectInGraph, null);
-		Object result = traversal.traverse(currentObjectInGraph, referenceHistory);
-		// TODO make it so removals can only happen here
-		// TODO test drive putting the removal in a finally block to prevent memory leaks following Exceptions
-		referenceHistory.remove(currentObjectInGraph);
-		return result;
+		try {
+			return traversal.traverse(currentObjectInGraph, referenceHistory);
+		} finally {
+			// TODO make it so removals can only happen here
+			referenceHistory.remove(currentObjectInGraph);
+			// the history left with each Thread should not stay as big as the biggest graph it ever traversed
+			if (referenceHistory.isEmpty()) referenceHistory.clear(MAXIMUM_RETAINED_HISTORY_SIZE);
+		}
 	}
 
-	private Map getReferenceHistory() {
-		Map referenceHistory = (Map) referenceHistoryForThread.get();
+	private OpenAddressingIdentityMap getReferenceHistory() {
+		OpenAddressingIdentityMap referenceHistory = (OpenAddressingIdentityMap) referenceHistoryForThread.get();
 		if (referenceHistory == null) {
-			referenceHistoryForThread.set(referenceHistory = new IdentityMap());
+			referenceHistoryForThread.set(referenceHistory = new OpenAddressingIdentityMap());
 		}
 		return referenceHistory;
 	}
@@ -4,13 +4,21 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import com.googlecode.transloader.Assert;
 import com.googlecode.transloader.ClassWrapper;
 
 /**
- * A reflective wrapper around any object, exposing its fields.
+ * A reflective wrapper around any object, exposing its fields. The field descriptions of each <code>Class</code> and
+ * the accessible <code>Field</code>s they resolve to in each <code>ClassLoader</code> are looked up only once and
+ * then shared by all <code>FieldReflector</code>s. The descriptions reference no <code>Class</code>, but the cached
+ * <code>Field</code>s do, so they delay the unloading of their <code>Class</code>es until the garbage collector
+ * clears them, which it only guarantees to do before running out of memory.
  * 
  * @author Jeremy Wales
  */
@@ -22,8 +30,12 @@ public final class FieldReflector {
 			Arrays.asList(new Class[] {Boolean.class, Byte.class, Character.class, Short.class, Integer.class,
 					Long.class, Float.class, Double.class});
 
+	private static final Map DESCRIPTIONS_BY_CLASS = Collections.synchronizedMap(new WeakHashMap());
+	private static final ReferenceCache ACCESSIBLE_FIELDS = new ReferenceCache();
+
 	private final Object wrappedObject;
 	private final ClassLoader classLoader;
+	private Map accessibleFields;
 
 	/**
 	 * Wraps the given object in a new <code>FieldReflector</code>. Retrieves the <code>ClassLoader</code> of the
@@ -56,10 +68,23 @@ public final class FieldReflector {
 	 *         such descriptions)
 	 */
 	public FieldDescription[] getAllInstanceFieldDescriptions() {
-		return getAllInstanceFieldDescriptions(wrappedObject.getClass());
+		return (FieldDescription[]) getAllInstanceFieldDescriptions(wrappedObject.getClass()).clone();
+	}
+
+	/**
+	 * Gets the cached descriptions of all the instance fields in the class hierarchy of the given <code>Class</code>.
+	 * The array returned is shared so must not be modified.
+	 */
+	static FieldDescription[] getAllInstanceFieldDescriptions(Class objectClass) {
+		FieldDescription[] descriptions = (FieldDescription[]) DESCRIPTIONS_BY_CLASS.get(objectClass);
+		if (descriptions == null) {
+			descriptions = findAllInstanceFieldDescriptions(objectClass);
+			DESCRIPTIONS_BY_CLASS.put(objectClass, descriptions);
+		}
+		return descriptions;
 	}
 
-	private static FieldDescription[] getAllInstanceFieldDescriptions(Class currentClass) {
+	private static FieldDescription[] findAllInstanceFieldDescriptions(Class currentClass) {
 		List descriptions = new ArrayList();
 		while (currentClass != null) {
 			descriptions.addAll(getInstanceFieldDescriptions(currentClass));
@@ -98,7 +123,7 @@ public final class FieldReflector {
 	public Object getValue(FieldDescription description) throws ClassNotFoundException, NoSuchFieldException,
 			IllegalAccessException {
 		Assert.isNotNull(description);
-		return getFieldHavingMadeItAccessible(wrappedObject, description, classLoader).get(wrappedObject);
+		return getField(description).get(wrappedObject);
 	}
 
 	/**
@@ -119,11 +144,58 @@ public final class FieldReflector {
 	public void setValue(FieldDescription description, Object fieldValue) throws ClassNotFoundException,
 			NoSuchFieldException, IllegalAccessException {
 		Assert.areNotNull(description, fieldValue);
-		getFieldHavingMadeItAccessible(wrappedObject, description, classLoader).set(wrappedObject, fieldValue);
+		getField(description).set(wrappedObject, fieldValue);
+	}
+
+	private Field getField(FieldDescription description) throws ClassNotFoundException, NoSuchFieldException {
+		if (accessibleFields == null) accessibleFields = getAccessibleFields(wrappedObject.getClass(), classLoader);
+		return getField(accessibleFields, description, classLoader);
+	}
+
+	/**
+	 * Gets the accessible <code>Field</code> matching the given description for objects of the given
+	 * <code>Class</code>, resolving its declaring <code>Class</code> through the given <code>ClassLoader</code>.
+	 */
+	static Field getAccessibleField(Class objectClass, ClassLoader classLoader, FieldDescription description)
+			throws ClassNotFoundException, NoSuchFieldException {
+		return getField(getAccessibleFields(objectClass, classLoader), description, classLoader);
+	}
+
+	private static Field getField(Map accessibleFields, FieldDescription description, ClassLoader classLoader)
+			throws ClassNotFoundException, NoSuchFieldException {
+		Map fieldsByName = (Map) accessibleFields.get(description.getDeclaringClassName());
+		Field field = fieldsByName == null ? null : (Field) fieldsByName.get(description.getFieldName());
+		return field == null ? getFieldHavingMadeItAccessible(description, classLoader) : field;
+	}
+
+	private static Map getAccessibleFields(Class objectClass, ClassLoader classLoader) {
+		Map fields = (Map) ACCESSIBLE_FIELDS.get(objectClass, classLoader);
+		if (fields == null) {
+			fields = resolveAccessibleFields(objectClass, classLoader);
+			ACCESSIBLE_FIELDS.put(objectClass, classLoader, fields);
+		}
+		return fields;
 	}
 
-	private static Field getFieldHavingMadeItAccessible(Object object, FieldDescription description,
-			ClassLoader classLoader) throws ClassNotFoundException, NoSuchFieldException {
+	private static Map resolveAccessibleFields(Class objectClass, ClassLoader classLoader) {
+		FieldDescription[] descriptions = getAllInstanceFieldDescriptions(objectClass);
+		Map fieldsByDeclaringClassName = new HashMap();
+		for (int i = 0; i < descriptions.length; i++) {
+			FieldDescription description = descriptions[i];
+			Map fieldsByName = (Map) fieldsByDeclaringClassName.get(description.getDeclaringClassName());
+			if (fieldsByName == null)
+				fieldsByDeclaringClassName.put(description.getDeclaringClassName(), fieldsByName = new HashMap());
+			try {
+				fieldsByName.put(description.getFieldName(), getFieldHavingMadeItAccessible(description, classLoader));
+			} catch (Exception e) {
+				// left out so that it is resolved again on use, failing in exactly the same way as uncached access
+			}
+		}
+		return fieldsByDeclaringClassName;
+	}
+
+	private static Field getFieldHavingMadeItAccessible(FieldDescription description, ClassLoader classLoader)
+			throws ClassNotFoundException, NoSuchFieldException {
 		Class declaringClass = ClassWrapper.getClass(description.getDeclaringClassName(), classLoader);
 		Field field = declaringClass.getDeclaredField(description.getFieldName());
 		field.setAccessible(true);
@@ -132,7 +204,11 @@ public final class FieldReflector {
 
 	private static ClassLoader getClassLoader(Object object) {
 		Assert.isNotNull(object);
-		ClassLoader classLoader = object.getClass().getClassLoader();
+		return getClassLoader(object.getClass());
+	}
+
+	static ClassLoader getClassLoader(Class clazz) {
+		ClassLoader classLoader = clazz.getClassLoader();
 		return classLoader == null ? ClassLoader.getSystemClassLoader() : classLoader;
 	}
 }
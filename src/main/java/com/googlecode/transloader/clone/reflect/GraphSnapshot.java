@@ -0,0 +1,52 @@
+package com.googlecode.transloader.clone.reflect;
+
+import com.googlecode.transloader.Assert;
+import com.googlecode.transloader.clone.CloningStrategy;
+
+/**
+ * An object graph walked just once by {@link BinaryCloningStrategy#snapshot(Object)} and kept in the same compact form
+ * that strategy clones through, which references no <code>Class</code> from any <code>ClassLoader</code>, so that it
+ * can be materialized as a new clone in as many <code>ClassLoader</code>s as needed without walking the original
+ * graph again. Materializing only has to load the <code>Class</code>es, instantiate the objects and fill in their
+ * fields.
+ * <p>
+ * A snapshot is taken of the state of the graph at the time, apart from any objects left for the fallback
+ * <code>CloningStrategy</code>, which are cloned from their current state each time the snapshot is materialized.
+ * Snapshots never change once taken, so any number of <code>Thread</code>s can materialize the same one at once.
+ * </p>
+ */
+public final class GraphSnapshot {
+	private final BinaryGraph graph;
+	private final InstantiationStrategy instantiator;
+	private final CloningStrategy fallbackCloner;
+
+	GraphSnapshot(BinaryGraph graph, InstantiationStrategy instantiator, CloningStrategy fallbackCloner) {
+		this.graph = graph;
+		this.instantiator = instantiator;
+		this.fallbackCloner = fallbackCloner;
+	}
+
+	/**
+	 * Materializes a new clone of the object graph as it was when this snapshot was taken, with every
+	 * <code>Class</code> it references loaded from the given <code>ClassLoader</code>.
+	 * 
+	 * @param targetClassLoader the <code>ClassLoader</code> by which to load <code>Class</code>es for clones
+	 * @return a completely cloned object graph
+	 * @throws Exception can throw any <code>Exception</code> thrown while loading and instantiating the clones or by
+	 *             the fallback <code>CloningStrategy</code>
+	 */
+	public Object materializeUsingClassLoader(ClassLoader targetClassLoader) throws Exception {
+		Assert.isNotNull(targetClassLoader);
+		return graph.decode(targetClassLoader, instantiator, fallbackCloner);
+	}
+
+	/**
+	 * Gets the number of bytes the object graph is kept in, not counting the description of each <code>Class</code>
+	 * in it or any objects left for the fallback <code>CloningStrategy</code>.
+	 * 
+	 * @return the size of the snapshot in bytes
+	 */
+	public int getSize() {
+		return graph.getSize();
+	}
+}
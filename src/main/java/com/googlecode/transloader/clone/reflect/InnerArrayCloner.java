@@ -2,28 +2,26 @@ package com.googlecode.transloader.clone.reflect;
 
 import java.lang.reflect.Array;
 
-import com.googlecode.transloader.ClassWrapper;
-import com.googlecode.transloader.clone.CloningStrategy;
-
 final class InnerArrayCloner implements InnerCloner {
-	private final CloningStrategy parent;
-
-	InnerArrayCloner(CloningStrategy outerCloner) {
-		parent = outerCloner;
+	public Object instantiateClone(Object originalArray, ClonePlan plan) throws Exception {
+		return Array.newInstance(plan.getCloneClass(), Array.getLength(originalArray));
 	}
 
-	public Object instantiateClone(Object originalArray, ClassLoader targetClassLoader) throws Exception {
-		Class originalComponentType = originalArray.getClass().getComponentType();
-		Class cloneComponentType = ClassWrapper.getClass(originalComponentType.getName(), targetClassLoader);
-		return Array.newInstance(cloneComponentType, Array.getLength(originalArray));
+	public int cloneContentUpToNextReference(Object original, Object clone, ClonePlan plan, int position)
+			throws Exception {
+		if (plan.getCloneClass().isPrimitive()) {
+			// primitive component types are the same in every ClassLoader so there is nothing to clone one by one
+			if (clone != original) System.arraycopy(original, 0, clone, 0, Array.getLength(original));
+			return -1;
+		}
+		return position < ((Object[]) original).length ? position : -1;
 	}
 
-	public void cloneContent(Object original, Object clone, ClassLoader targetClassLoader) throws Exception {
-		for (int i = 0; i < Array.getLength(original); i++) {
-			Object originalComponent = Array.get(original, i);
-			Object cloneComponent = parent.cloneObjectUsingClassLoader(originalComponent, targetClassLoader);
-			Array.set(clone, i, cloneComponent);
-		}
+	public Object getReference(Object original, ClonePlan plan, int position) throws Exception {
+		return ((Object[]) original)[position];
 	}
 
+	public void setReference(Object clone, ClonePlan plan, int position, Object reference) throws Exception {
+		((Object[]) clone)[position] = reference;
+	}
 }
@@ -1,7 +1,21 @@
 package com.googlecode.transloader.clone.reflect;
 
+/**
+ * Knows the layout of one kind of object for {@link ReflectionCloningStrategy}, which itself decides how every
+ * reference found in that layout is cloned. Positions are field indexes in a {@link ClonePlan} or array indexes.
+ */
 interface InnerCloner {
-	Object instantiateClone(Object original, ClassLoader targetClassLoader) throws Exception;
+	Object instantiateClone(Object original, ClonePlan plan) throws Exception;
 
-	void cloneContent(Object original, Object clone, ClassLoader targetClassLoader) throws Exception;
+	/**
+	 * Clones everything in the content of the original which does not reference another object, starting at the given
+	 * position and stopping at the next position which does.
+	 * 
+	 * @return the next position holding a reference or <code>-1</code> if there are none left
+	 */
+	int cloneContentUpToNextReference(Object original, Object clone, ClonePlan plan, int position) throws Exception;
+
+	Object getReference(Object original, ClonePlan plan, int position) throws Exception;
+
+	void setReference(Object clone, ClonePlan plan, int position, Object reference) throws Exception;
 }
@@ -1,37 +1,31 @@
 package com.googlecode.transloader.clone.reflect;
 
-import com.googlecode.transloader.ClassWrapper;
-import com.googlecode.transloader.clone.CloningStrategy;
-
 final class InnerNormalObjectCloner implements InnerCloner {
 	private final InstantiationStrategy instantiator;
-	private final CloningStrategy parent;
 
-	InnerNormalObjectCloner(CloningStrategy outerCloner, InstantiationStrategy instantiationStrategy) {
-		parent = outerCloner;
+	InnerNormalObjectCloner(InstantiationStrategy instantiationStrategy) {
 		instantiator = instantiationStrategy;
 	}
 
-	public Object instantiateClone(Object original, ClassLoader targetClassLoader) throws Exception {
-		Class cloneClass = ClassWrapper.getClass(original.getClass().getName(), targetClassLoader);
-		return instantiator.newInstance(cloneClass);
+	public Object instantiateClone(Object original, ClonePlan plan) throws Exception {
+		return instantiator.newInstance(plan.getCloneClass());
 	}
 
-	public void cloneContent(Object original, Object clone, ClassLoader targetClassLoader) throws Exception {
-		FieldReflector originalReflector = new FieldReflector(original);
-		FieldReflector cloneReflector = new FieldReflector(clone, targetClassLoader);
-		FieldDescription[] fieldDescriptions = originalReflector.getAllInstanceFieldDescriptions();
-		for (int i = 0; i < fieldDescriptions.length; i++) {
-			cloneField(fieldDescriptions[i], originalReflector, cloneReflector, targetClassLoader);
+	public int cloneContentUpToNextReference(Object original, Object clone, ClonePlan plan, int position)
+			throws Exception {
+		for (int i = position; i < plan.getFieldCount(); i++) {
+			if (!plan.isPrimitive(i)) return i;
+			// an original whose content is cloned in place already has its own primitive values
+			if (clone != original) plan.copyPrimitiveValue(original, clone, i);
 		}
+		return -1;
+	}
+
+	public Object getReference(Object original, ClonePlan plan, int position) throws Exception {
+		return plan.getValue(original, position);
 	}
 
-	private void cloneField(FieldDescription description, FieldReflector originalReflector,
-			FieldReflector cloneReflector, ClassLoader targetClassLoader) throws Exception {
-		Object originalFieldValue = originalReflector.getValue(description);
-		Object cloneFieldValue = originalFieldValue;
-		if (!description.isPrimitive())
-			cloneFieldValue = parent.cloneObjectUsingClassLoader(originalFieldValue, targetClassLoader);
-		cloneReflector.setValue(description, cloneFieldValue);
+	public void setReference(Object clone, ClonePlan plan, int position, Object reference) throws Exception {
+		plan.setValue(clone, position, reference);
 	}
 }
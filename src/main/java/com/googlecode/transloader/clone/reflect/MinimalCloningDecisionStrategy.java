@@ -1,12 +1,18 @@
 package com.googlecode.transloader.clone.reflect;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.googlecode.transloader.Assert;
 import com.googlecode.transloader.ClassWrapper;
+import com.googlecode.transloader.TransloaderException;
 
 /**
  * When injected into a {@link ReflectionCloningStrategy}, decides that only those objects whose <code>Class</code>es
@@ -19,6 +25,8 @@ public final class MinimalCloningDecisionStrategy implements CloningDecisionStra
 	private static final List KNOWN_SHARED_IMMUTABLES =
 			Arrays.asList(new Class[] {String.class, BigInteger.class, BigDecimal.class});
 
+	private final ReferenceCache decisions = new ReferenceCache();
+
 	/**
 	 * Decides that the given object should be shallow copied if its <code>Class</code> would be different when loaded
 	 * through the given <code>ClassLoader</code>.
@@ -30,7 +38,7 @@ public final class MinimalCloningDecisionStrategy implements CloningDecisionStra
 	 */
 	public boolean shouldCloneObjectItself(Object original, ClassLoader targetClassLoader) {
 		Assert.areNotNull(original, targetClassLoader);
-		return !isSameInClassLoader(original.getClass(), targetClassLoader);
+		return getDecision(original.getClass(), targetClassLoader).shouldCloneObjectItself();
 	}
 
 	private boolean isSameInClassLoader(Class originalClass, ClassLoader targetClassLoader) {
@@ -40,19 +48,128 @@ public final class MinimalCloningDecisionStrategy implements CloningDecisionStra
 	/**
 	 * Decides to not even consider cloning the objects referenced by the given object if it is known to an immutable
 	 * object shared of a type shared among all <code>ClassLoader</code>s e.g. primitive wrappers and
-	 * <code>String</code>s.
+	 * <code>String</code>s, or if it is an array of primitives, which can only ever reference primitives. Nor are
+	 * they considered if the object is deeply shareable, i.e. if its <code>Class</code> is the same when loaded
+	 * through the given <code>ClassLoader</code> and so are the <code>Class</code>es of all the objects it can
+	 * possibly reference. This is decided once per <code>Class</code> and <code>ClassLoader</code> from the declared
+	 * types of fields, so it can only be proven for <code>Class</code>es whose fields throughout the graph of types
+	 * are all primitives, <code>final</code> classes or arrays of these, which cannot hold instances of other
+	 * <code>Class</code>es. Known immutables, primitive wrappers and arrays of primitives are shareable wherever they
+	 * are referenced, so the types of their own fields are never looked into.
 	 * 
 	 * @param original the candidate for cloning
-	 * @param targetClassLoader the <code>ClassLoader</code> it may be cloned with; ignored in this implementation
+	 * @param targetClassLoader the <code>ClassLoader</code> it may be cloned with
 	 * @return <code>true</code> unless <code>original</code>'s <code>Class</code> makes it a known immutable of
-	 *         type shared among all <code>ClassLoader</code>s
+	 *         type shared among all <code>ClassLoader</code>s, an array of primitives or deeply shareable with
+	 *         <code>targetClassLoader</code>
 	 */
 	public boolean shouldCloneObjectContent(Object original, ClassLoader targetClassLoader) {
 		Assert.areNotNull(original, targetClassLoader);
-		return !isEffectivelyPrimitive(original.getClass());
+		return getDecision(original.getClass(), targetClassLoader).shouldCloneObjectContent();
+	}
+
+	/**
+	 * Gets both decisions about instances of the given <code>Class</code> at once, making them the first time they
+	 * are needed for the given <code>ClassLoader</code> and remembering them from then on, including when the
+	 * <code>Class</code> cannot be found through it at all.
+	 */
+	private Decision getDecision(Class originalClass, ClassLoader targetClassLoader) {
+		Decision decision = (Decision) decisions.get(originalClass, targetClassLoader);
+		if (decision == null) {
+			decision = decide(originalClass, targetClassLoader);
+			decisions.put(originalClass, targetClassLoader, decision);
+		}
+		return decision;
+	}
+
+	private Decision decide(Class originalClass, ClassLoader targetClassLoader) {
+		boolean cloneContent =
+				!isEffectivelyPrimitive(originalClass) && !isDeeplyShareable(originalClass, targetClassLoader);
+		try {
+			return new Decision(!isSameInClassLoader(originalClass, targetClassLoader), cloneContent, null);
+		} catch (TransloaderException e) {
+			return new Decision(true, cloneContent, e);
+		}
 	}
 
 	private boolean isEffectivelyPrimitive(Class originalClass) {
-		return FieldReflector.PRIMITIVE_WRAPPERS.contains(originalClass) || KNOWN_SHARED_IMMUTABLES.contains(originalClass);
+		return FieldReflector.PRIMITIVE_WRAPPERS.contains(originalClass) || KNOWN_SHARED_IMMUTABLES.contains(originalClass)
+				|| isPrimitiveArray(originalClass);
+	}
+
+	private boolean isPrimitiveArray(Class originalClass) {
+		return originalClass.isArray() && originalClass.getComponentType().isPrimitive();
+	}
+
+	private boolean isDeeplyShareable(Class originalClass, ClassLoader targetClassLoader) {
+		Set checkedClasses = new HashSet();
+		List uncheckedClasses = new ArrayList();
+		uncheckedClasses.add(originalClass);
+		while (!uncheckedClasses.isEmpty()) {
+			Class currentClass = (Class) uncheckedClasses.remove(uncheckedClasses.size() - 1);
+			if (!checkedClasses.add(currentClass) || isEffectivelyPrimitive(currentClass)) continue;
+			try {
+				if (!isSameInClassLoader(currentClass, targetClassLoader)) return false;
+			} catch (TransloaderException e) {
+				// a Class which cannot be found cannot be proven to be shareable
+				return false;
+			}
+			Class[] referencedTypes = getReferencedTypes(currentClass);
+			for (int i = 0; i < referencedTypes.length; i++) {
+				if (!isExactType(referencedTypes[i])) return false;
+				if (!referencedTypes[i].isPrimitive()) uncheckedClasses.add(referencedTypes[i]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the declared types of all the instance fields in the class hierarchy of the given <code>Class</code>,
+	 * straight from their declarations, so that no <code>Field</code> ever needs to be made accessible.
+	 */
+	private Class[] getReferencedTypes(Class currentClass) {
+		if (currentClass.isArray()) return new Class[] {currentClass.getComponentType()};
+		List referencedTypes = new ArrayList();
+		Class declaringClass = currentClass;
+		while (declaringClass != null) {
+			Field[] fields = declaringClass.getDeclaredFields();
+			for (int i = 0; i < fields.length; i++) {
+				if (!Modifier.isStatic(fields[i].getModifiers())) referencedTypes.add(fields[i].getType());
+			}
+			declaringClass = declaringClass.getSuperclass();
+		}
+		return (Class[]) referencedTypes.toArray(new Class[referencedTypes.size()]);
+	}
+
+	/**
+	 * Whether or not anything declared as the given type can only be exactly of that type.
+	 */
+	private boolean isExactType(Class type) {
+		if (type.isArray()) return isExactType(type.getComponentType());
+		return type.isPrimitive() || Modifier.isFinal(type.getModifiers());
+	}
+
+	private static final class Decision {
+		private final boolean cloneObjectItself;
+		private final boolean cloneObjectContent;
+		private final TransloaderException classNotFound;
+
+		Decision(boolean cloneObjectItself, boolean cloneObjectContent, TransloaderException classNotFound) {
+			this.cloneObjectItself = cloneObjectItself;
+			this.cloneObjectContent = cloneObjectContent;
+			this.classNotFound = classNotFound;
+		}
+
+		boolean shouldCloneObjectItself() {
+			// a fresh exception each time, so that every failure has its own stack trace
+			if (classNotFound != null) {
+				throw new TransloaderException(classNotFound.getMessage(), (Exception) classNotFound.getCause());
+			}
+			return cloneObjectItself;
+		}
+
+		boolean shouldCloneObjectContent() {
+			return cloneObjectContent;
+		}
 	}
 }
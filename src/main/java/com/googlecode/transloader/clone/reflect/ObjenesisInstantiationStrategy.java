@@ -1,7 +1,12 @@
 package com.googlecode.transloader.clone.reflect;
 
+import java.util.Map;
+
+import org.apache.commons.collections.map.AbstractReferenceMap;
+import org.apache.commons.collections.map.ReferenceIdentityMap;
 import org.objenesis.Objenesis;
 import org.objenesis.ObjenesisStd;
+import org.objenesis.instantiator.ObjectInstantiator;
 
 import com.googlecode.transloader.Assert;
 
@@ -11,13 +16,24 @@ import com.googlecode.transloader.Assert;
  * @author Jeremy Wales
  */
 public final class ObjenesisInstantiationStrategy implements InstantiationStrategy {
-	private final Objenesis objenesis = new ObjenesisStd();
+	// Objenesis' own cache is keyed by Class name, which would mix up Classes of the same name in different
+	// ClassLoaders, so instantiators are cached here by the Classes themselves instead
+	private final Objenesis objenesis = new ObjenesisStd(false);
+	private final Map instantiators = new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.SOFT);
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public Object newInstance(Class type) throws Exception {
 		Assert.isNotNull(type);
-		return objenesis.newInstance(type);
+		return getInstantiatorOf(type).newInstance();
+	}
+
+	private ObjectInstantiator getInstantiatorOf(Class type) {
+		synchronized (instantiators) {
+			ObjectInstantiator instantiator = (ObjectInstantiator) instantiators.get(type);
+			if (instantiator == null) instantiators.put(type, instantiator = objenesis.getInstantiatorOf(type));
+			return instantiator;
+		}
 	}
 }
@@ -0,0 +1,239 @@
+package com.googlecode.transloader.clone.reflect;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A <code>Map</code> which compares its keys by identity like <code>IdentityMap</code>, but which keeps its keys and
+ * values in two parallel arrays using open addressing with linear probing, so that putting a new key allocates nothing
+ * and finding one is a short walk along an array. It can be sized up front for the number of keys it is expected to
+ * hold and cleared for reuse without giving up its arrays. Like <code>IdentityMap</code>, it accepts
+ * <code>null</code> as a key as well as a value. The implementation is not thread-safe.
+ */
+final class OpenAddressingIdentityMap extends AbstractMap {
+	private static final int MINIMUM_CAPACITY = 16;
+	private static final int MAXIMUM_CAPACITY = 1 << 30;
+	// stands in for a null key, so that an empty slot can still be told apart by holding null
+	private static final Object NULL_KEY = new Object();
+
+	private Object[] keys;
+	private Object[] values;
+	private int size;
+
+	OpenAddressingIdentityMap() {
+		this(0);
+	}
+
+	OpenAddressingIdentityMap(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int capacity = MINIMUM_CAPACITY;
+		// kept at most half full so that runs of occupied slots stay short
+		while (capacity / 2 < expectedSize && capacity < MAXIMUM_CAPACITY) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private void allocate(int capacity) {
+		keys = new Object[capacity];
+		values = new Object[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	public Object get(Object key) {
+		int index = indexOf(key);
+		return index < 0 ? null : values[index];
+	}
+
+	public Object put(Object key, Object value) {
+		key = maskNull(key);
+		int index = slotOf(key);
+		if (keys[index] == key) {
+			Object previousValue = values[index];
+			values[index] = value;
+			return previousValue;
+		}
+		keys[index] = key;
+		values[index] = value;
+		if (++size > keys.length / 2 && keys.length < MAXIMUM_CAPACITY) resize(keys.length * 2);
+		return null;
+	}
+
+	public Object remove(Object key) {
+		int index = indexOf(key);
+		if (index < 0) return null;
+		Object previousValue = values[index];
+		delete(index);
+		return previousValue;
+	}
+
+	public void clear() {
+		if (size == 0) return;
+		Arrays.fill(keys, null);
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * Clears this map like {@link #clear()}, but gives up its arrays for smaller ones if they have grown bigger than
+	 * needed for the given number of keys, so that one huge use of the map is not paid for with memory afterwards.
+	 */
+	void clear(int maximumRetainedSize) {
+		int maximumRetainedCapacity = capacityFor(maximumRetainedSize);
+		if (keys.length > maximumRetainedCapacity) {
+			allocate(maximumRetainedCapacity);
+			size = 0;
+		} else {
+			clear();
+		}
+	}
+
+	public Set entrySet() {
+		return new EntrySet();
+	}
+
+	private int indexOf(Object key) {
+		key = maskNull(key);
+		int index = slotOf(key);
+		return keys[index] == key ? index : -1;
+	}
+
+	private static Object maskNull(Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	/**
+	 * Finds either the slot holding the given key or, if it is absent, the empty slot in which it belongs.
+	 */
+	private int slotOf(Object key) {
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while (keys[index] != null && keys[index] != key) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	static int hash(Object key) {
+		int hash = System.identityHashCode(key);
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Empties the slot at the given index, shifting back into it any following key which could otherwise no longer be
+	 * found from the slot in which it belongs.
+	 */
+	private void delete(int index) {
+		int mask = keys.length - 1;
+		int emptyIndex = index;
+		for (int i = (index + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+			int homeIndex = hash(keys[i]) & mask;
+			if (((i - homeIndex) & mask) >= ((i - emptyIndex) & mask)) {
+				keys[emptyIndex] = keys[i];
+				values[emptyIndex] = values[i];
+				emptyIndex = i;
+			}
+		}
+		keys[emptyIndex] = null;
+		values[emptyIndex] = null;
+		size--;
+	}
+
+	private void resize(int capacity) {
+		Object[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int index = slotOf(oldKeys[i]);
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	private final class EntrySet extends AbstractSet {
+		public int size() {
+			return size;
+		}
+
+		public Iterator iterator() {
+			return new Iterator() {
+				private int nextIndex = findOccupied(0);
+
+				public boolean hasNext() {
+					return nextIndex < keys.length;
+				}
+
+				public Object next() {
+					if (!hasNext()) throw new NoSuchElementException();
+					Entry entry = new Entry(nextIndex);
+					nextIndex = findOccupied(nextIndex + 1);
+					return entry;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		private int findOccupied(int index) {
+			while (index < keys.length && keys[index] == null) {
+				index++;
+			}
+			return index;
+		}
+	}
+
+	private final class Entry implements Map.Entry {
+		private final int index;
+
+		Entry(int index) {
+			this.index = index;
+		}
+
+		public Object getKey() {
+			Object key = keys[index];
+			return key == NULL_KEY ? null : key;
+		}
+
+		public Object getValue() {
+			return values[index];
+		}
+
+		public Object setValue(Object value) {
+			Object previousValue = values[index];
+			values[index] = value;
+			return previousValue;
+		}
+
+		public boolean equals(Object object) {
+			if (!(object instanceof Map.Entry)) return false;
+			Map.Entry other = (Map.Entry) object;
+			Object value = getValue();
+			return getKey() == other.getKey()
+					&& (value == null ? other.getValue() == null : value.equals(other.getValue()));
+		}
+
+		public int hashCode() {
+			Object value = getValue();
+			return System.identityHashCode(getKey()) ^ (value == null ? 0 : value.hashCode());
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package com.googlecode.transloader.clone.reflect;
+
+import java.util.Map;
+
+import org.apache.commons.collections.map.AbstractReferenceMap;
+import org.apache.commons.collections.map.ReferenceIdentityMap;
+
+/**
+ * A thread-safe cache of values keyed by pairs of objects, typically a <code>Class</code> and a
+ * <code>ClassLoader</code>. Keys are only weakly referenced and values only softly referenced. Values which
+ * themselves reference their keys, such as a {@link ClonePlan} referencing its <code>Class</code> and that
+ * <code>Class</code>'s <code>ClassLoader</code>, therefore keep those keys alive until their soft references are
+ * cleared, which the garbage collector only guarantees to do before running out of memory. Caching such values
+ * delays the unloading of <code>Class</code>es and <code>ClassLoader</code>s rather than preventing it.
+ */
+final class ReferenceCache {
+	private final Map valuesByFirstKey = newReferenceMap();
+
+	Object get(Object firstKey, Object secondKey) {
+		synchronized (valuesByFirstKey) {
+			Map valuesBySecondKey = (Map) valuesByFirstKey.get(firstKey);
+			return valuesBySecondKey == null ? null : valuesBySecondKey.get(secondKey);
+		}
+	}
+
+	void put(Object firstKey, Object secondKey, Object value) {
+		synchronized (valuesByFirstKey) {
+			Map valuesBySecondKey = (Map) valuesByFirstKey.get(firstKey);
+			if (valuesBySecondKey == null) valuesByFirstKey.put(firstKey, valuesBySecondKey = newReferenceMap());
+			valuesBySecondKey.put(secondKey, value);
+		}
+	}
+
+	private static Map newReferenceMap() {
+		return new ReferenceIdentityMap(AbstractReferenceMap.WEAK, AbstractReferenceMap.SOFT);
+	}
+}
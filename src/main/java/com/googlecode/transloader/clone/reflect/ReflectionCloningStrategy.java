@@ -1,10 +1,7 @@
 package com.googlecode.transloader.clone.reflect;
 
-import java.util.Map;
-
 import com.googlecode.transloader.Assert;
 import com.googlecode.transloader.clone.CloningStrategy;
-import com.googlecode.transloader.clone.reflect.CyclicReferenceSafeTraverser.Traversal;
 
 /**
  * A <code>CloningStrategy</code> that uses Java Reflection as its mechanism. Can clone whole object graphs or just
@@ -13,7 +10,7 @@ import com.googlecode.transloader.clone.reflect.CyclicReferenceSafeTraverser.Tra
  * @author Jeremy Wales
  */
 public final class ReflectionCloningStrategy implements CloningStrategy {
-	private final CyclicReferenceSafeTraverser cyclicReferenceSafeTraverser = new CyclicReferenceSafeTraverser();
+	private final ReferenceCache clonePlans = new ReferenceCache();
 
 	private final CloningDecisionStrategy decider;
 	private final InnerCloner arrayCloner;
@@ -34,16 +31,21 @@ public final class ReflectionCloningStrategy implements CloningStrategy {
 			InstantiationStrategy instantiator, CloningStrategy fallbackCloningStrategy) {
 		Assert.areNotNull(cloningDecisionStrategy, instantiator, fallbackCloningStrategy);
 		decider = cloningDecisionStrategy;
-		arrayCloner = new InnerArrayCloner(this);
-		normalObjectCloner = new InnerNormalObjectCloner(this, instantiator);
+		arrayCloner = new InnerArrayCloner();
+		normalObjectCloner = new InnerNormalObjectCloner(instantiator);
 		fallbackCloner = fallbackCloningStrategy;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 * <p>
-	 * This implementation uses {@link CyclicReferenceSafeTraverser} to sucessfully handle cyclic references in the
-	 * given object graph.
+	 * This implementation keeps a history of every object already cloned in the given object graph so that cyclic and
+	 * shared references are handled sucessfully, and walks the graph using an explicit stack rather than recursion so
+	 * that graphs of any depth can be cloned without exhausting the call stack. <code>null</code> references in the
+	 * graph are simply left <code>null</code>. What it needs to know about each <code>Class</code> in the graph (such
+	 * as the fields throughout its hierarchy) is resolved only once per target <code>ClassLoader</code> and then reused
+	 * for every instance of that <code>Class</code>. The history and the stack belong to a {@link CloneContext}
+	 * borrowed just for the duration of the call.
 	 * </p>
 	 * 
 	 * @return a completely or partially cloned object graph, depending on the <code>CloningDecisionStrategy</code>
@@ -52,39 +54,168 @@ public final class ReflectionCloningStrategy implements CloningStrategy {
 	 *         with potentially the <code>original</code> itself being the top-level object in the graph returned if
 	 *         it was not cloned
 	 */
-	public Object cloneObjectUsingClassLoader(final Object original, final ClassLoader targetClassLoader)
-			throws Exception {
+	public Object cloneObjectUsingClassLoader(Object original, ClassLoader targetClassLoader) throws Exception {
 		Assert.areNotNull(original, targetClassLoader);
-		Traversal cloningTraversal = new Traversal() {
-			public Object traverse(Object currentObject, Map referenceHistory) throws Exception {
-				return ReflectionCloningStrategy.this.clone(currentObject, targetClassLoader, referenceHistory);
+		CloneContext context = CloneContext.acquire();
+		try {
+			return cloneObjectUsingClassLoader(original, targetClassLoader, context);
+		} finally {
+			CloneContext.release(context);
+		}
+	}
+
+	/**
+	 * Clones the given object using the given <code>ClassLoader</code> in the same way as
+	 * {@link #cloneObjectUsingClassLoader(Object, ClassLoader)}, but as part of the given <code>CloneContext</code>,
+	 * so that any object already cloned in that context is not cloned again but referenced by the clone returned.
+	 * 
+	 * @param original the original object to be cloned
+	 * @param targetClassLoader the <code>ClassLoader</code> by which to load <code>Class</code>es for clones, which
+	 *            must be the same for every use of the given <code>CloneContext</code> until it is reset
+	 * @param context the context in which to clone
+	 * @return a completely or partially cloned object graph
+	 * @throws Exception can throw any <code>Exception</code> thrown by the fallback <code>CloningStrategy</code>
+	 */
+	public Object cloneObjectUsingClassLoader(Object original, ClassLoader targetClassLoader, CloneContext context)
+			throws Exception {
+		Assert.areNotNull(original, targetClassLoader, context);
+		context.startCloningTo(targetClassLoader);
+		CloneStack stack = context.getStack();
+		int bottom = stack.size();
+		try {
+			Object clone = clone(original, targetClassLoader, context);
+			Object finishedClone = null;
+			boolean isReferencePending = false;
+			while (stack.size() > bottom) {
+				try {
+					// a finished clone is only referenced from its parent on the next turn, so that failing to set that
+					// reference makes the parent fall back, just as failing to set any of its other references does
+					if (isReferencePending) {
+						isReferencePending = false;
+						setReferenceOfTop(finishedClone, stack);
+					}
+					if (!cloneContentOfTop(targetClassLoader, context)) continue;
+					finishedClone = stack.getClone();
+					stack.pop();
+				} catch (Exception e) {
+					finishedClone = performFallbackCloningOfTop(targetClassLoader, context, bottom);
+				}
+				if (stack.size() == bottom) {
+					clone = finishedClone;
+				} else {
+					isReferencePending = true;
+				}
+			}
+			return clone;
+		} finally {
+			// whatever went wrong, the context is left as it was given, so that it can still be used
+			stack.popTo(bottom);
+		}
+	}
+
+	/**
+	 * Clones the references in the content of the object on top of the <code>stack</code> until either there are
+	 * none left, returning <code>true</code>, or one of them has content of its own to be cloned first, in which case
+	 * it is now on top of the <code>stack</code> and <code>false</code> is returned.
+	 */
+	private boolean cloneContentOfTop(ClassLoader targetClassLoader, CloneContext context) throws Exception {
+		CloneStack stack = context.getStack();
+		Object original = stack.getOriginal();
+		Object clone = stack.getClone();
+		ClonePlan plan = stack.getPlan();
+		InnerCloner innerCloner = getInnerCloner(original);
+		int size = stack.size();
+		int position = stack.getPosition();
+		while ((position = innerCloner.cloneContentUpToNextReference(original, clone, plan, position)) >= 0) {
+			stack.setPosition(position);
+			Object reference = innerCloner.getReference(original, plan, position);
+			Object referenceClone = clone(reference, targetClassLoader, context);
+			if (stack.size() > size) return false;
+			innerCloner.setReference(clone, plan, position++, referenceClone);
+		}
+		return true;
+	}
+
+	private void setReferenceOfTop(Object referenceClone, CloneStack stack) throws Exception {
+		Object original = stack.getOriginal();
+		int position = stack.getPosition();
+		getInnerCloner(original).setReference(stack.getClone(), stack.getPlan(), position, referenceClone);
+		stack.setPosition(position + 1);
+	}
+
+	/**
+	 * Falls back for the object on top of the <code>stack</code>, whose content could not be cloned. If even that
+	 * fails, the object which references it falls back in turn, just as it would if its content had been cloned
+	 * recursively.
+	 */
+	private Object performFallbackCloningOfTop(ClassLoader targetClassLoader, CloneContext context, int bottom)
+			throws Exception {
+		CloneStack stack = context.getStack();
+		while (true) {
+			Object original = stack.getOriginal();
+			stack.pop();
+			try {
+				Object clone = performFallbackCloning(original, targetClassLoader, context);
+				context.recordClone(original, clone);
+				return clone;
+			} catch (Exception e) {
+				if (stack.size() == bottom) throw e;
 			}
-		};
-		return cyclicReferenceSafeTraverser.performWithoutFollowingCircles(cloningTraversal, original);
+		}
 	}
 
-	private Object clone(Object original, ClassLoader targetClassLoader, Map cloneHistory) throws Exception {
+	private Object clone(Object original, ClassLoader targetClassLoader, CloneContext context) throws Exception {
 		if (original == null) return null;
+		Object clone = context.getClone(original);
+		if (clone != null) return clone;
 		try {
-			return performIntendedCloning(original, targetClassLoader, cloneHistory);
+			return performIntendedCloning(original, targetClassLoader, context);
 		} catch (Exception e) {
-			return performFallbackCloning(original, targetClassLoader);
+			clone = performFallbackCloning(original, targetClassLoader, context);
+			context.recordClone(original, clone);
+			return clone;
 		}
 	}
 
-	private Object performIntendedCloning(Object original, ClassLoader targetClassLoader, Map cloneHistory)
+	/**
+	 * Clones the given object itself and as much of its content as does not reference other objects, leaving the rest
+	 * of its content to be cloned from the <code>stack</code> if there is any.
+	 */
+	private Object performIntendedCloning(Object original, ClassLoader targetClassLoader, CloneContext context)
 			throws Exception {
-		InnerCloner innerCloner = original.getClass().isArray() ? arrayCloner : normalObjectCloner;
+		InnerCloner innerCloner = getInnerCloner(original);
+		ClonePlan plan = null;
 		Object clone = original;
-		if (decider.shouldCloneObjectItself(original, targetClassLoader))
-			clone = innerCloner.instantiateClone(original, targetClassLoader);
-		cloneHistory.put(original, clone);
-		if (decider.shouldCloneObjectContent(original, targetClassLoader))
-			innerCloner.cloneContent(original, clone, targetClassLoader);
+		if (decider.shouldCloneObjectItself(original, targetClassLoader)) {
+			plan = getClonePlan(original.getClass(), targetClassLoader);
+			clone = innerCloner.instantiateClone(original, plan);
+			context.countClonedObject();
+		}
+		context.recordClone(original, clone);
+		if (decider.shouldCloneObjectContent(original, targetClassLoader)) {
+			if (plan == null) plan = getClonePlan(original.getClass(), targetClassLoader);
+			int position = innerCloner.cloneContentUpToNextReference(original, clone, plan, 0);
+			if (position >= 0) context.getStack().push(original, clone, plan, position);
+		}
 		return clone;
 	}
 
-	private Object performFallbackCloning(Object original, ClassLoader targetClassLoader) throws Exception {
+	private InnerCloner getInnerCloner(Object original) {
+		return original.getClass().isArray() ? arrayCloner : normalObjectCloner;
+	}
+
+	private ClonePlan getClonePlan(Class originalClass, ClassLoader targetClassLoader) throws Exception {
+		ClonePlan plan = (ClonePlan) clonePlans.get(originalClass, targetClassLoader);
+		if (plan == null) {
+			plan = ClonePlan.resolve(originalClass, targetClassLoader);
+			clonePlans.put(originalClass, targetClassLoader, plan);
+		}
+		return plan;
+	}
+
+	private Object performFallbackCloning(Object original, ClassLoader targetClassLoader, CloneContext context)
+			throws Exception {
+		context.countFallback();
 		return fallbackCloner.cloneObjectUsingClassLoader(original, targetClassLoader);
 	}
 }
@@ -0,0 +1,108 @@
+package com.googlecode.transloader.clone.reflect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.googlecode.transloader.test.Triangulate;
+
+public class OpenAddressingIdentityMapTest extends TestCase {
+	// the capacity of a map not sized for any keys, in which no more than half that many keys can be put unresized
+	private static final int INITIAL_CAPACITY = 16;
+
+	public void testFindsKeysWhichBelongInTheSameSlot() throws Exception {
+		Object[] keys = getKeysBelongingIn(3, 4);
+		Map map = new OpenAddressingIdentityMap();
+		for (int i = 0; i < keys.length; i++) {
+			map.put(keys[i], new Integer(i));
+		}
+		assertEquals(keys.length, map.size());
+		for (int i = 0; i < keys.length; i++) {
+			assertEquals(new Integer(i), map.get(keys[i]));
+		}
+	}
+
+	public void testFindsKeysAfterRemovingOthersFromARunWhichWrapsAround() throws Exception {
+		Object[] lastSlotKeys = getKeysBelongingIn(INITIAL_CAPACITY - 1, 3);
+		Object firstSlotKey = getKeysBelongingIn(0, 1)[0];
+		Map map = new OpenAddressingIdentityMap();
+		for (int i = 0; i < lastSlotKeys.length; i++) {
+			map.put(lastSlotKeys[i], new Integer(i));
+		}
+		// pushed along by the keys wrapped around from the last slot into the first ones
+		map.put(firstSlotKey, "first");
+
+		assertEquals(new Integer(0), map.remove(lastSlotKeys[0]));
+		assertFalse(map.containsKey(lastSlotKeys[0]));
+		assertEquals(new Integer(1), map.get(lastSlotKeys[1]));
+		assertEquals(new Integer(2), map.get(lastSlotKeys[2]));
+		assertEquals("first", map.get(firstSlotKey));
+
+		assertEquals(new Integer(2), map.remove(lastSlotKeys[2]));
+		assertEquals(new Integer(1), map.get(lastSlotKeys[1]));
+		assertEquals("first", map.get(firstSlotKey));
+		assertEquals(2, map.size());
+	}
+
+	public void testKeepsEveryKeyWhenResized() throws Exception {
+		int count = 1000 + Triangulate.anyIntFromZeroTo(100);
+		Object[] keys = new Object[count];
+		Map map = new OpenAddressingIdentityMap();
+		for (int i = 0; i < count; i++) {
+			map.put(keys[i] = new Object(), new Integer(i));
+		}
+		assertEquals(count, map.size());
+		assertEquals(count, map.entrySet().size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(new Integer(i), map.get(keys[i]));
+		}
+	}
+
+	public void testComparesKeysByIdentityRatherThanEquality() throws Exception {
+		String key = Triangulate.anyString();
+		String equalKey = new String(key);
+		Map map = new OpenAddressingIdentityMap();
+		map.put(key, "original");
+		map.put(equalKey, "equal");
+		assertEquals(2, map.size());
+		assertEquals("original", map.get(key));
+		assertEquals("equal", map.get(equalKey));
+		assertNull(map.get(new String(key)));
+	}
+
+	public void testAcceptsNullKeys() throws Exception {
+		Object value = Triangulate.anyString();
+		Map map = new OpenAddressingIdentityMap();
+		assertFalse(map.containsKey(null));
+		assertNull(map.put(null, value));
+		assertTrue(map.containsKey(null));
+		assertSame(value, map.get(null));
+		assertNull(((Map.Entry) map.entrySet().iterator().next()).getKey());
+		assertSame(value, map.remove(null));
+		assertFalse(map.containsKey(null));
+		assertEquals(0, map.size());
+	}
+
+	public void testCanBeReusedOnceCleared() throws Exception {
+		OpenAddressingIdentityMap map = new OpenAddressingIdentityMap();
+		for (int i = 0; i < 100; i++) {
+			map.put(new Object(), null);
+		}
+		map.clear(INITIAL_CAPACITY / 2);
+		assertEquals(0, map.size());
+		Object key = new Object();
+		map.put(key, key);
+		assertSame(key, map.get(key));
+	}
+
+	private static Object[] getKeysBelongingIn(int slot, int count) {
+		List keys = new ArrayList();
+		while (keys.size() < count) {
+			Object key = new Object();
+			if ((OpenAddressingIdentityMap.hash(key) & (INITIAL_CAPACITY - 1)) == slot) keys.add(key);
+		}
+		return keys.toArray();
+	}
+}
@@ -0,0 +1,19 @@
+package com.googlecode.transloader.test.fixture;
+
+public class LinkedNode extends NonCommonJavaObject {
+	private int index;
+	private LinkedNode next;
+
+	public LinkedNode(int index, LinkedNode next) {
+		this.index = index;
+		this.next = next;
+	}
+
+	public static LinkedNode chainOfLength(int length) {
+		LinkedNode first = null;
+		for (int i = length - 1; i >= 0; i--) {
+			first = new LinkedNode(i, first);
+		}
+		return first;
+	}
+}
@@ -0,0 +1,9 @@
+package com.googlecode.transloader.test.fixture;
+
+public class NonCommonJavaException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public NonCommonJavaException(String message) {
+		super(message);
+	}
+}
@@ -5,5 +5,11 @@ public interface NonCommonJavaTypeWithMethods extends NonCommonJavaType {
 
 	void setStringField(String stringFieldValue);
 
+	long add(int first, long second);
+
 	String concatenate(NonCommonJavaType first, NonCommonJavaType second);
+
+	NonCommonJavaType wrap(NonCommonJavaType content);
+
+	void fail(String message) throws NonCommonJavaException;
 }
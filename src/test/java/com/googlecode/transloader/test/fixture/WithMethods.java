@@ -11,7 +11,19 @@ public class WithMethods extends NonCommonJavaObject implements NonCommonJavaTyp
 		stringField = stringFieldValue;
 	}
 
+	public long add(int first, long second) {
+		return first + second;
+	}
+
 	public String concatenate(NonCommonJavaType first, NonCommonJavaType second) {
 		return first.toString() + second.toString();
 	}
+
+	public NonCommonJavaType wrap(NonCommonJavaType content) {
+		return new WithNonCommonJavaFields(content);
+	}
+
+	public void fail(String message) throws NonCommonJavaException {
+		throw new NonCommonJavaException(message);
+	}
 }
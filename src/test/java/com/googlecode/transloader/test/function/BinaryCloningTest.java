@@ -0,0 +1,70 @@
+package com.googlecode.transloader.test.function;
+
+import junit.extensions.ActiveTestSuite;
+import junit.framework.Test;
+
+import com.googlecode.transloader.DefaultTransloader;
+import com.googlecode.transloader.Transloader;
+import com.googlecode.transloader.clone.SerializationCloningStrategy;
+import com.googlecode.transloader.clone.reflect.BinaryCloningStrategy;
+import com.googlecode.transloader.clone.reflect.GraphSnapshot;
+import com.googlecode.transloader.clone.reflect.ObjenesisInstantiationStrategy;
+import com.googlecode.transloader.test.Triangulate;
+import com.googlecode.transloader.test.fixture.IndependentClassLoader;
+import com.googlecode.transloader.test.fixture.NonCommonJavaObject;
+import com.googlecode.transloader.test.fixture.NonCommonJavaType;
+import com.googlecode.transloader.test.fixture.SelfAndChildReferencingParent;
+import com.googlecode.transloader.test.fixture.SelfAndParentReferencingChild;
+import com.googlecode.transloader.test.fixture.WithMethods;
+
+public class BinaryCloningTest extends CloningTestCase {
+	public static Test suite() throws Exception {
+		return new ActiveTestSuite(BinaryCloningTest.class);
+	}
+
+	public void testClonesStringsBoxedPrimitivesAndClassesByValueKeepingSharedReferences() throws Exception {
+		String string = Triangulate.anyString();
+		Integer integer = Triangulate.anyInteger();
+		Object[] original = {string, integer, string, NonCommonJavaObject.class, Integer.TYPE, null};
+		Object[] clone = (Object[]) getTransloader().wrap(original).cloneWith(IndependentClassLoader.getInstance());
+		assertNotSame(original, clone);
+		assertEquals(string, clone[0]);
+		assertEquals(integer, clone[1]);
+		assertSame(clone[0], clone[2]);
+		assertSame(IndependentClassLoader.getInstance().loadClass(NonCommonJavaObject.class.getName()), clone[3]);
+		assertSame(Integer.TYPE, clone[4]);
+		assertNull(clone[5]);
+	}
+
+	public void testMaterializesSnapshotsOfGraphsAsTheyWereWhenTaken() throws Exception {
+		WithMethods original = new WithMethods();
+		original.setStringField(Triangulate.anyString());
+		String originalString = original.toString();
+		GraphSnapshot snapshot = getCloningStrategy().snapshot(original);
+		original.setStringField(Triangulate.anyString());
+		Object clone = snapshot.materializeUsingClassLoader(IndependentClassLoader.getInstance());
+		assertEqualExceptForClassLoader(originalString, clone);
+		assertNotSame(clone, snapshot.materializeUsingClassLoader(IndependentClassLoader.getInstance()));
+	}
+
+	public void testClonesWithEveryClassLoaderAtOnceFromOneSnapshot() throws Exception {
+		NonCommonJavaType original =
+				new SelfAndParentReferencingChild(Triangulate.anyString(), new SelfAndChildReferencingParent(
+						Triangulate.anyString()));
+		ClassLoader classLoader = IndependentClassLoader.getInstance();
+		Object[] clones =
+				getTransloader().wrap(original).cloneWithAll(new ClassLoader[] {classLoader, classLoader, classLoader});
+		for (int i = 0; i < clones.length; i++) {
+			assertEqualExceptForClassLoader(original.toString(), clones[i]);
+			assertNotSame(clones[i], clones[(i + 1) % clones.length]);
+		}
+	}
+
+	private BinaryCloningStrategy getCloningStrategy() {
+		return new BinaryCloningStrategy(new ObjenesisInstantiationStrategy(), new SerializationCloningStrategy());
+	}
+
+	protected Transloader getTransloader() {
+		return new DefaultTransloader(getCloningStrategy());
+	}
+}
@@ -1,10 +1,13 @@
 package com.googlecode.transloader.test.function;
 
 import com.googlecode.transloader.Transloader;
+import com.googlecode.transloader.clone.reflect.FieldDescription;
+import com.googlecode.transloader.clone.reflect.FieldReflector;
 import com.googlecode.transloader.test.BaseTestCase;
 import com.googlecode.transloader.test.Triangulate;
 import com.googlecode.transloader.test.fixture.HiearchyWithFieldsBottom;
 import com.googlecode.transloader.test.fixture.IndependentClassLoader;
+import com.googlecode.transloader.test.fixture.LinkedNode;
 import com.googlecode.transloader.test.fixture.NonCommonJavaObject;
 import com.googlecode.transloader.test.fixture.NonCommonJavaType;
 import com.googlecode.transloader.test.fixture.SelfAndChildReferencingParent;
@@ -73,6 +76,20 @@ public abstract class CloningTestCase extends BaseTestCase {
 		cloneWithCircularReferences();
 	}
 
+	public void testClonesObjectGraphsTooDeepToTraverseRecursively() throws Exception {
+		int length = 100000;
+		Object clone = getTransloader().wrap(LinkedNode.chainOfLength(length)).cloneWith(
+				IndependentClassLoader.getInstance());
+		FieldDescription indexField = new FieldDescription(LinkedNode.class, "index", Integer.TYPE);
+		FieldDescription nextField = new FieldDescription(LinkedNode.class, "next", LinkedNode.class);
+		int clonedLength = 0;
+		for (Object node = clone; node != null; node = new FieldReflector(node).getValue(nextField)) {
+			assertSame(IndependentClassLoader.getInstance(), node.getClass().getClassLoader());
+			assertEquals(new Integer(clonedLength++), new FieldReflector(node).getValue(indexField));
+		}
+		assertEquals(length, clonedLength);
+	}
+
 	private void cloneWithCircularReferences() throws Exception {
 		assertDeeplyClonedToOtherClassLoader(new SelfAndParentReferencingChild(Triangulate.anyString(),
 				new SelfAndChildReferencingParent(Triangulate.anyString())));
@@ -1,21 +1,33 @@
 package com.googlecode.transloader.test.function;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
 import junit.extensions.ActiveTestSuite;
 import junit.framework.Test;
 
+import com.googlecode.transloader.ClassWrapper;
 import com.googlecode.transloader.InvocationDescription;
 import com.googlecode.transloader.ObjectWrapper;
+import com.googlecode.transloader.PendingResult;
+import com.googlecode.transloader.TaskRunner;
 import com.googlecode.transloader.TransloaderException;
 import com.googlecode.transloader.Transloader;
 import com.googlecode.transloader.clone.CloningStrategy;
+import com.googlecode.transloader.clone.reflect.FieldDescription;
+import com.googlecode.transloader.clone.reflect.FieldReflector;
 import com.googlecode.transloader.test.BaseTestCase;
 import com.googlecode.transloader.test.Triangulate;
 import com.googlecode.transloader.test.fixture.IndependentClassLoader;
+import com.googlecode.transloader.test.fixture.NonCommonJavaException;
 import com.googlecode.transloader.test.fixture.NonCommonJavaObject;
 import com.googlecode.transloader.test.fixture.NonCommonJavaType;
 import com.googlecode.transloader.test.fixture.NonCommonJavaTypeWithMethods;
 import com.googlecode.transloader.test.fixture.WithMapFields;
 import com.googlecode.transloader.test.fixture.WithMethods;
+import com.googlecode.transloader.test.fixture.WithNonCommonJavaFields;
 import com.googlecode.transloader.test.fixture.WithPrimitiveFields;
 import com.googlecode.transloader.test.fixture.WithStringField;
 
@@ -98,6 +110,29 @@ public class GeneralTransloaderTest extends BaseTestCase {
 				new TransloaderException("Unable to clone '" + expectedOriginal + "'.", expectedException));
 	}
 
+	public void testFailsToLoadMissingClassesEveryTime() throws Exception {
+		final String className = NonCommonJavaObject.class.getName() + Triangulate.anyAlphaNumbericString();
+		Thrower thrower = new Thrower() {
+			public void executeUntilThrow() throws Throwable {
+				ClassWrapper.getClass(className, IndependentClassLoader.getInstance());
+			}
+		};
+		TransloaderException expected =
+				new TransloaderException("Unable to load Class '" + className + "' from ClassLoader '",
+						new ClassNotFoundException(className));
+		assertThrows(thrower, expected);
+		assertThrows(thrower, expected);
+	}
+
+	public void testLoadsTheSameClassFromTheSameClassLoaderEveryTime() throws Exception {
+		ClassLoader classLoader = IndependentClassLoader.getInstance();
+		Class loaded = ClassWrapper.getClass(WithMethods.class.getName(), classLoader);
+		assertSame(classLoader, loaded.getClassLoader());
+		assertSame(loaded, ClassWrapper.getClass(WithMethods.class.getName(), classLoader));
+		assertSame(Integer.TYPE, ClassWrapper.getClass("int", classLoader));
+		assertSame(String[].class, ClassWrapper.getClass(String[].class.getName(), classLoader));
+	}
+
 	public void testProvidesWrappedObjectOnRequest() throws Exception {
 		final Object expected = new Object();
 		assertSame(expected, transloader.wrap(expected).getUnwrappedSelf());
@@ -110,6 +145,102 @@ public class GeneralTransloaderTest extends BaseTestCase {
 		assertEquals(expectedStringFieldValue, objectWrapper.invoke(new InvocationDescription("getStringField")));
 	}
 
+	public void testPassesStringsToInvocationsWithoutCloningThem() throws Exception {
+		ObjectWrapper objectWrapper = transloader.wrap(foreignObjectWithMethods);
+		String expectedStringFieldValue = Triangulate.anyString();
+		objectWrapper.invoke(new InvocationDescription("setStringField", expectedStringFieldValue));
+		assertSame(expectedStringFieldValue, objectWrapper.invoke(new InvocationDescription("getStringField")));
+	}
+
+	public void testInvokesAsynchronouslyInNewThreads() throws Exception {
+		ObjectWrapper objectWrapper = transloader.wrap(foreignObjectWithMethods);
+		String expectedStringFieldValue = Triangulate.anyString();
+		PendingResult setting =
+				objectWrapper.invokeAsync(new InvocationDescription("setStringField", expectedStringFieldValue));
+		assertNull(setting.get());
+		assertTrue(setting.isDone());
+		assertEquals(expectedStringFieldValue, objectWrapper.invokeAsync(new InvocationDescription("getStringField"))
+				.get());
+	}
+
+	public void testInvokesAsynchronouslyUsingTheGivenTaskRunner() throws Exception {
+		final List tasks = new ArrayList();
+		TaskRunner runner = new TaskRunner() {
+			public void run(Runnable task) {
+				tasks.add(task);
+			}
+		};
+		PendingResult pending =
+				transloader.wrap(foreignObjectWithMethods).invokeAsync(new InvocationDescription("getStringField"),
+						runner);
+		assertFalse(pending.isDone());
+		assertEquals(1, tasks.size());
+		((Runnable) tasks.get(0)).run();
+		assertTrue(pending.isDone());
+		assertNull(pending.get());
+	}
+
+	public void testRethrowsFailuresOfAsynchronousInvocationsWhenAskedForTheirResults() throws Exception {
+		final PendingResult pending =
+				transloader.wrap(foreignObjectWithMethods).invokeAsync(
+						new InvocationDescription("noSuchMethod", Triangulate.anyString()));
+		Thrower thrower = new Thrower() {
+			public void executeUntilThrow() throws Throwable {
+				pending.get();
+			}
+		};
+		assertThrows(thrower, new TransloaderException("Unable to invoke 'noSuchMethod[java.lang.String]' on '",
+				new NoSuchMethodException()));
+	}
+
+	public void testKeepsTheInterruptedStatusOfThreadsInterruptedWhileWaitingForResults() throws Exception {
+		final PendingResult pending =
+				transloader.wrap(foreignObjectWithMethods).invokeAsync(new InvocationDescription("getStringField"),
+						new TaskRunner() {
+							public void run(Runnable task) {
+								// never run, so that the result is waited for until interrupted
+							}
+						});
+		Thrower thrower = new Thrower() {
+			public void executeUntilThrow() throws Throwable {
+				Thread.currentThread().interrupt();
+				pending.get();
+			}
+		};
+		try {
+			assertThrows(thrower, new TransloaderException("Interrupted while waiting for a task to finish.",
+					new InterruptedException()));
+		} finally {
+			assertTrue(Thread.interrupted());
+		}
+	}
+
+	public void testClonesAsynchronously() throws Exception {
+		NonCommonJavaType original = new WithStringField(Triangulate.anyString());
+		Object clone = transloader.wrap(original).cloneWithAsync(IndependentClassLoader.getInstance()).get();
+		assertEqualExceptForClassLoader(original.toString(), clone);
+	}
+
+	public void testClonesWithEveryClassLoaderAtOnce() throws Exception {
+		NonCommonJavaType original = new WithStringField(Triangulate.anyString());
+		ClassLoader classLoader = IndependentClassLoader.getInstance();
+		Object[] clones = transloader.wrap(original).cloneWithAll(new ClassLoader[] {classLoader, classLoader});
+		assertEquals(2, clones.length);
+		assertNotSame(clones[0], clones[1]);
+		assertEqualExceptForClassLoader(original.toString(), clones[0]);
+		assertEqualExceptForClassLoader(original.toString(), clones[1]);
+	}
+
+	public void testRejectsNullAmongTheClassLoadersToCloneWithAll() throws Exception {
+		final ObjectWrapper wrapper = transloader.wrap(new WithStringField(Triangulate.anyString()));
+		Thrower thrower = new Thrower() {
+			public void executeUntilThrow() throws Throwable {
+				wrapper.cloneWithAll(new ClassLoader[] {IndependentClassLoader.getInstance(), null});
+			}
+		};
+		assertThrows(thrower, new IllegalArgumentException("Expecting no null parameters but received [null]."));
+	}
+
 	public void testClonesParametersOfNonCommonJavaTypesInInvocations() throws Exception {
 		NonCommonJavaType first = new WithStringField(Triangulate.anyString());
 		NonCommonJavaType second = new WithPrimitiveFields();
@@ -122,6 +253,51 @@ public class GeneralTransloaderTest extends BaseTestCase {
 		assertEqualExceptForClassLoader(expected, actual);
 	}
 
+	public void testFailsToInvokeMissingMethodsEveryTime() throws Exception {
+		final ObjectWrapper objectWrapper = transloader.wrap(foreignObjectWithMethods);
+		final InvocationDescription description = new InvocationDescription("noSuchMethod", Triangulate.anyString());
+		Thrower thrower = new Thrower() {
+			public void executeUntilThrow() throws Throwable {
+				objectWrapper.invoke(description);
+			}
+		};
+		TransloaderException expected =
+				new TransloaderException("Unable to invoke 'noSuchMethod[java.lang.String]' on '",
+						new NoSuchMethodException());
+		assertThrows(thrower, expected);
+		assertThrows(thrower, expected);
+	}
+
+	public void testInvokesAllInOrderCloningParametersGivenToSeveralInvocationsOnlyOnce() throws Exception {
+		String expectedStringFieldValue = Triangulate.anyString();
+		NonCommonJavaType parameter = new WithStringField(Triangulate.anyString());
+		InvocationDescription[] descriptions =
+				{new InvocationDescription("setStringField", expectedStringFieldValue),
+						new InvocationDescription("wrap", NonCommonJavaType.class, parameter),
+						new InvocationDescription("wrap", NonCommonJavaType.class, parameter),
+						new InvocationDescription("getStringField")};
+		Object[] results = transloader.wrap(foreignObjectWithMethods).invokeAll(descriptions);
+		assertEquals(descriptions.length, results.length);
+		assertNull(results[0]);
+		FieldDescription typeField =
+				new FieldDescription(WithNonCommonJavaFields.class, "type", NonCommonJavaType.class);
+		Object firstClone = new FieldReflector(results[1]).getValue(typeField);
+		assertEqualExceptForClassLoader(parameter.toString(), firstClone);
+		assertSame(firstClone, new FieldReflector(results[2]).getValue(typeField));
+		assertSame(expectedStringFieldValue, results[3]);
+	}
+
+	public void testFailsToInvokeAllOnNull() throws Exception {
+		final InvocationDescription[] descriptions = {new InvocationDescription("getStringField")};
+		Thrower thrower = new Thrower() {
+			public void executeUntilThrow() throws Throwable {
+				transloader.wrap((Object) null).invokeAll(descriptions);
+			}
+		};
+		assertThrows(thrower, new TransloaderException("Unable to perform 1 invocations on 'null'.",
+				new NullPointerException()));
+	}
+
 	public void testCreatesAnImplementationOfAGivenInterfaceThatCallsThroughToTheWrappedObject() throws Exception {
 		String expectedStringFieldValue = Triangulate.anyString();
 		Transloader.DEFAULT.wrap(foreignObjectWithMethods).invoke(
@@ -131,4 +307,134 @@ public class GeneralTransloaderTest extends BaseTestCase {
 						NonCommonJavaTypeWithMethods.class);
 		assertEquals(expectedStringFieldValue, withMethods.getStringField());
 	}
+
+	public void testGeneratesImplementationsOfGivenInterfacesThatCallThroughToTheWrappedObjectDirectly()
+			throws Exception {
+		NonCommonJavaTypeWithMethods withMethods =
+				(NonCommonJavaTypeWithMethods) transloader.wrap(foreignObjectWithMethods).makeCastableTo(
+						NonCommonJavaTypeWithMethods.class);
+		assertFalse(Proxy.isProxyClass(withMethods.getClass()));
+		int first = Triangulate.anyInt();
+		long second = Triangulate.anyInt() * 3L;
+		assertEquals(first + second, withMethods.add(first, second));
+		assertEquals(foreignObjectWithMethods.hashCode(), withMethods.hashCode());
+		assertEquals(foreignObjectWithMethods.toString(), withMethods.toString());
+	}
+
+	public void testWrapsExceptionsThrownInCallsThroughImplementationsOfGivenInterfaces() throws Exception {
+		final NonCommonJavaTypeWithMethods withMethods =
+				(NonCommonJavaTypeWithMethods) transloader.wrap(foreignObjectWithMethods).makeCastableTo(
+						NonCommonJavaTypeWithMethods.class);
+		Thrower thrower = new Thrower() {
+			public void executeUntilThrow() throws Throwable {
+				withMethods.fail(Triangulate.anyString());
+			}
+		};
+		assertThrows(thrower, new TransloaderException("Unable to invoke 'fail[java.lang.String]' on '",
+				new InvocationTargetException(null)));
+	}
+
+	public void testCreatesImplementationsOfGivenInterfacesThatCallThroughToJavaObjects() throws Exception {
+		String expected = Triangulate.anyString();
+		List list = (List) transloader.wrap(new ArrayList()).makeCastableTo(List.class);
+		assertTrue(list.add(expected));
+		assertEquals(1, list.size());
+		assertEquals(expected, list.get(0));
+	}
+
+	public void testFailsToCallThroughImplementationsOfGivenInterfacesToNull() throws Exception {
+		final NonCommonJavaTypeWithMethods withMethods =
+				(NonCommonJavaTypeWithMethods) transloader.wrap((Object) null).makeCastableTo(
+						NonCommonJavaTypeWithMethods.class);
+		Thrower thrower = new Thrower() {
+			public void executeUntilThrow() throws Throwable {
+				withMethods.getStringField();
+			}
+		};
+		assertThrows(thrower, new TransloaderException("Unable to invoke 'getStringField[]' on 'null'.",
+				new NullPointerException()));
+	}
+
+	public void testClonesParametersOfNonCommonJavaTypesInCallsThroughImplementationsOfGivenInterfaces()
+			throws Exception {
+		NonCommonJavaType first = new WithStringField(Triangulate.anyString());
+		NonCommonJavaType second = new WithPrimitiveFields();
+		String expected = new WithMethods().concatenate(first, second);
+		NonCommonJavaTypeWithMethods withMethods =
+				(NonCommonJavaTypeWithMethods) transloader.wrap(foreignObjectWithMethods).makeCastableTo(
+						NonCommonJavaTypeWithMethods.class);
+		assertEqualExceptForClassLoader(expected, withMethods.concatenate(first, second));
+		assertEqualExceptForClassLoader(expected, withMethods.concatenate(first, second));
+	}
+
+	public void testReusesTheSameProxyClassForEveryImplementationOfAGivenInterfaceForTheSameClass()
+			throws Exception {
+		Object first = transloader.wrap(foreignObjectWithMethods).makeCastableTo(NonCommonJavaTypeWithMethods.class);
+		Object second =
+				transloader.wrap(getNewInstanceFromOtherClassLoader(WithMethods.class)).makeCastableTo(
+						NonCommonJavaTypeWithMethods.class);
+		assertSame(first.getClass(), second.getClass());
+	}
+
+	public void testReusesTheSameProxyClassForEveryImplementationOfAGivenInterfaceWhichIsNotPublic()
+			throws Exception {
+		Object first = transloader.wrap(foreignObjectWithMethods).makeCastableTo(WithStringFieldGetter.class);
+		Object second = transloader.wrap(foreignObject).makeCastableTo(WithStringFieldGetter.class);
+		assertTrue(Proxy.isProxyClass(first.getClass()));
+		assertSame(first.getClass(), second.getClass());
+	}
+
+	public void testCreatesImplementationsOfInterfacesWhichAreNotPublic() throws Exception {
+		String expectedStringFieldValue = Triangulate.anyString();
+		transloader.wrap(foreignObjectWithMethods).invoke(
+				new InvocationDescription("setStringField", expectedStringFieldValue));
+		WithStringFieldGetter getter =
+				(WithStringFieldGetter) transloader.wrap(foreignObjectWithMethods).makeCastableTo(
+						WithStringFieldGetter.class);
+		assertEquals(expectedStringFieldValue, getter.getStringField());
+	}
+
+	interface WithStringFieldGetter {
+		String getStringField();
+	}
+
+	public void testCreatesImplementationsOfInterfacesFromOtherClassLoaders() throws Exception {
+		Class foreignInterface =
+				IndependentClassLoader.getInstance().loadClass(NonCommonJavaTypeWithMethods.class.getName());
+		Object withMethods = transloader.wrap(foreignObjectWithMethods).makeCastableTo(foreignInterface);
+		assertTrue(foreignInterface.isInstance(withMethods));
+		String expectedStringFieldValue = Triangulate.anyString();
+		foreignInterface.getMethod("setStringField", new Class[] {String.class}).invoke(withMethods,
+				new Object[] {expectedStringFieldValue});
+		assertEquals(expectedStringFieldValue, foreignInterface.getMethod("getStringField", new Class[0]).invoke(
+				withMethods, new Object[0]));
+	}
+
+	public void testClonesResultsBackReferencingTheVeryParametersGiven() throws Exception {
+		NonCommonJavaType parameter = new WithStringField(Triangulate.anyString());
+		Object result =
+				transloader.wrap(foreignObjectWithMethods).invoke(
+						new InvocationDescription("wrap", NonCommonJavaType.class, parameter),
+						getClass().getClassLoader());
+		assertTrue(result instanceof WithNonCommonJavaFields);
+		assertSame(parameter, new FieldReflector(result).getValue(
+				new FieldDescription(WithNonCommonJavaFields.class, "type", NonCommonJavaType.class)));
+	}
+
+	public void testClonesResultsAndExceptionsBackInCallsThroughImplementationsOfGivenInterfaces() throws Exception {
+		NonCommonJavaTypeWithMethods withMethods =
+				(NonCommonJavaTypeWithMethods) transloader.wrap(foreignObjectWithMethods).makeCastableTo(
+						NonCommonJavaTypeWithMethods.class, getClass().getClassLoader());
+		NonCommonJavaType parameter = new WithStringField(Triangulate.anyString());
+		NonCommonJavaType result = withMethods.wrap(parameter);
+		assertSame(parameter, new FieldReflector(result).getValue(
+				new FieldDescription(WithNonCommonJavaFields.class, "type", NonCommonJavaType.class)));
+		String expectedMessage = Triangulate.anyString();
+		try {
+			withMethods.fail(expectedMessage);
+			fail("Expected: '" + NonCommonJavaException.class + "'. Actual: nothing thrown.");
+		} catch (NonCommonJavaException e) {
+			assertEquals(expectedMessage, e.getMessage());
+		}
+	}
 }
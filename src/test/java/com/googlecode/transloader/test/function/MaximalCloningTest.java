@@ -6,11 +6,17 @@ import junit.extensions.ActiveTestSuite;
 import junit.framework.Test;
 
 import com.googlecode.transloader.Transloader;
+import com.googlecode.transloader.clone.CloningStrategy;
+import com.googlecode.transloader.clone.reflect.CloneContext;
 import com.googlecode.transloader.clone.reflect.CyclicReferenceSafeTraverser;
 import com.googlecode.transloader.clone.reflect.FieldDescription;
 import com.googlecode.transloader.clone.reflect.FieldReflector;
+import com.googlecode.transloader.clone.reflect.ReflectionCloningStrategy;
 import com.googlecode.transloader.clone.reflect.CyclicReferenceSafeTraverser.Traversal;
+import com.googlecode.transloader.test.fixture.IndependentClassLoader;
+import com.googlecode.transloader.test.fixture.NonCommonJavaObject;
 import com.googlecode.transloader.test.fixture.NonCommonJavaType;
+import com.googlecode.transloader.test.fixture.WithNonCommonJavaFields;
 
 // TODO minimal clones of Sets and Maps can be compared by Strings but maximal clones cannot without NullPointerExceptions, so find out why
 public class MaximalCloningTest extends CloningTestCase {
@@ -46,6 +52,26 @@ public class MaximalCloningTest extends CloningTestCase {
 		CYCLIC_REFERENCE_TRAVERSER.performWithoutFollowingCircles(notSameTraversal, original);
 	}
 
+	public void testClonesObjectsReferencedFromSeveralGraphsOnlyOnceInTheSameCloneContext() throws Exception {
+		ReflectionCloningStrategy cloner = (ReflectionCloningStrategy) CloningStrategy.MAXIMAL;
+		ClassLoader targetClassLoader = IndependentClassLoader.getInstance();
+		CloneContext context = new CloneContext();
+		NonCommonJavaObject shared = new NonCommonJavaObject();
+		Object firstClone =
+				cloner.cloneObjectUsingClassLoader(new WithNonCommonJavaFields(shared), targetClassLoader, context);
+		int clonedObjectCount = context.getClonedObjectCount();
+		Object secondClone =
+				cloner.cloneObjectUsingClassLoader(new WithNonCommonJavaFields(shared), targetClassLoader, context);
+		assertTrue(context.getClonedObjectCount() > clonedObjectCount);
+		FieldDescription typeField =
+				new FieldDescription(WithNonCommonJavaFields.class, "type", NonCommonJavaType.class);
+		Object sharedClone = new FieldReflector(firstClone).getValue(typeField);
+		assertNotSame(shared, sharedClone);
+		assertSame(sharedClone, new FieldReflector(secondClone).getValue(typeField));
+		context.reset();
+		assertEquals(0, context.getClonedObjectCount());
+	}
+
 	protected Transloader getTransloader() {
 		return Transloader.DEFAULT;
 	}
@@ -6,10 +6,17 @@ import junit.framework.Test;
 import com.googlecode.transloader.DefaultTransloader;
 import com.googlecode.transloader.Transloader;
 import com.googlecode.transloader.clone.CloningStrategy;
+import com.googlecode.transloader.clone.reflect.CloningDecisionStrategy;
+import com.googlecode.transloader.clone.reflect.FieldDescription;
+import com.googlecode.transloader.clone.reflect.FieldReflector;
+import com.googlecode.transloader.clone.reflect.MinimalCloningDecisionStrategy;
 import com.googlecode.transloader.test.Triangulate;
 import com.googlecode.transloader.test.fixture.IndependentClassLoader;
+import com.googlecode.transloader.test.fixture.NonCommonJavaObject;
+import com.googlecode.transloader.test.fixture.WithNonCommonJavaFields;
 import com.googlecode.transloader.test.fixture.WithMapFields;
 import com.googlecode.transloader.test.fixture.WithSetFields;
+import com.googlecode.transloader.test.fixture.WithStringField;
 
 public class MinimalCloningTest extends CloningTestCase {
 	public static Test suite() throws Exception {
@@ -29,6 +36,25 @@ public class MinimalCloningTest extends CloningTestCase {
 		assertDeeplyClonedToOtherClassLoader(new WithMapFields());
 	}
 
+	public void testDoesNotCloneContentOfDeeplyShareableObjects() throws Exception {
+		String string = Triangulate.anyString();
+		Object original = new WithStringField(string);
+		ClassLoader sameClassLoader = original.getClass().getClassLoader();
+		CloningDecisionStrategy decider = new MinimalCloningDecisionStrategy();
+		assertFalse(decider.shouldCloneObjectContent(original, sameClassLoader));
+		Object clone = getTransloader().wrap(original).cloneWith(sameClassLoader);
+		assertSame(original, clone);
+		assertSame(string, new FieldReflector(clone).getValue(
+				new FieldDescription(WithStringField.class, "field", String.class)));
+	}
+
+	public void testClonesContentOfObjectsReferencingObjectsNotShareable() throws Exception {
+		WithNonCommonJavaFields original = new WithNonCommonJavaFields(new NonCommonJavaObject());
+		CloningDecisionStrategy decider = new MinimalCloningDecisionStrategy();
+		assertTrue(decider.shouldCloneObjectContent(original, original.getClass().getClassLoader()));
+		assertDeeplyClonedToOtherClassLoader(original);
+	}
+
 	protected Transloader getTransloader() {
 		return new DefaultTransloader(CloningStrategy.MINIMAL);
 	}
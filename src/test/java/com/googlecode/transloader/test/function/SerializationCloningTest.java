@@ -0,0 +1,120 @@
+package com.googlecode.transloader.test.function;
+
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.extensions.ActiveTestSuite;
+import junit.framework.Test;
+
+import org.apache.commons.lang.SerializationException;
+
+import com.googlecode.transloader.clone.CloningStrategy;
+import com.googlecode.transloader.clone.SerializationCloningStrategy;
+import com.googlecode.transloader.test.BaseTestCase;
+import com.googlecode.transloader.test.Triangulate;
+import com.googlecode.transloader.test.fixture.IndependentClassLoader;
+import com.googlecode.transloader.test.fixture.NonCommonJavaObject;
+import com.googlecode.transloader.test.fixture.NonCommonJavaType;
+import com.googlecode.transloader.test.fixture.SerializableWithFinalFields;
+
+public class SerializationCloningTest extends BaseTestCase {
+	private static final int SMALL_PIPE_CAPACITY = 16;
+
+	public static Test suite() throws Exception {
+		return new ActiveTestSuite(SerializationCloningTest.class);
+	}
+
+	public void testClonesThroughAPipeMuchSmallerThanTheSerializedGraph() throws Exception {
+		List original = new ArrayList();
+		for (int i = 0; i < 1000; i++) {
+			original.add(new SerializableWithFinalFields(Triangulate.anyInteger()));
+		}
+		List clone =
+				(List) new SerializationCloningStrategy(SMALL_PIPE_CAPACITY).cloneObjectUsingClassLoader(original,
+						IndependentClassLoader.getInstance());
+		assertEquals(original.size(), clone.size());
+		for (int i = 0; i < original.size(); i++) {
+			assertEqualExceptForClassLoader(original.get(i).toString(), clone.get(i));
+		}
+	}
+
+	public void testClonesGraphsOfAllSizesOneAfterAnotherWithoutStreaming() throws Exception {
+		CloningStrategy buffering = new SerializationCloningStrategy();
+		for (int size = 1; size <= 1000; size *= 10) {
+			List original = new ArrayList();
+			for (int i = 0; i < size; i++) {
+				original.add(new SerializableWithFinalFields(Triangulate.anyInteger()));
+			}
+			List clone = (List) buffering.cloneObjectUsingClassLoader(original, IndependentClassLoader.getInstance());
+			assertEquals(original.size(), clone.size());
+			assertEqualExceptForClassLoader(original.get(size - 1).toString(), clone.get(size - 1));
+		}
+	}
+
+	public void testReportsFailureToSerializeWhenStreaming() throws Exception {
+		final List original = new ArrayList();
+		original.add(new SerializableWithFinalFields(Triangulate.anyInteger()));
+		original.add(new NonCommonJavaObject());
+		Thrower thrower = new Thrower() {
+			public void executeUntilThrow() throws Throwable {
+				new SerializationCloningStrategy(SMALL_PIPE_CAPACITY).cloneObjectUsingClassLoader(original,
+						IndependentClassLoader.getInstance());
+			}
+		};
+		assertThrows(thrower, new SerializationException(new NotSerializableException(NonCommonJavaObject.class
+				.getName())));
+	}
+
+	public void testRejectsPipesWithoutCapacity() throws Exception {
+		Thrower thrower = new Thrower() {
+			public void executeUntilThrow() throws Throwable {
+				new SerializationCloningStrategy(0);
+			}
+		};
+		assertThrows(thrower, new IllegalArgumentException("Expecting a positive pipe capacity but received 0."));
+	}
+
+	public void testClonesTheSameWhetherStreamingOrNot() throws Exception {
+		Object original = new SerializableWithFinalFields(Triangulate.anyInteger());
+		CloningStrategy streaming = new SerializationCloningStrategy(SMALL_PIPE_CAPACITY);
+		CloningStrategy buffering = new SerializationCloningStrategy();
+		ClassLoader classLoader = IndependentClassLoader.getInstance();
+		assertEquals(buffering.cloneObjectUsingClassLoader(original, classLoader).toString(), streaming
+				.cloneObjectUsingClassLoader(original, classLoader).toString());
+	}
+
+	public void testResolvesTheSameClassesEveryTimeWhetherStreamingOrNot() throws Exception {
+		Object original = new SerializableWithFinalFields(Triangulate.anyInteger());
+		ClassLoader classLoader = IndependentClassLoader.getInstance();
+		Class bufferedClass = new SerializationCloningStrategy().cloneObjectUsingClassLoader(original, classLoader)
+				.getClass();
+		Class streamedClass =
+				new SerializationCloningStrategy(SMALL_PIPE_CAPACITY).cloneObjectUsingClassLoader(original, classLoader)
+						.getClass();
+		assertSame(classLoader, bufferedClass.getClassLoader());
+		assertSame(bufferedClass, streamedClass);
+	}
+
+	public void testClonesProxiesToImplementInterfacesFromTheTargetClassLoader() throws Exception {
+		Object original =
+				Proxy.newProxyInstance(NonCommonJavaType.class.getClassLoader(),
+						new Class[] {NonCommonJavaType.class}, new SerializableInvocationHandler());
+		ClassLoader classLoader = IndependentClassLoader.getInstance();
+		CloningStrategy buffering = new SerializationCloningStrategy();
+		Class cloneClass = buffering.cloneObjectUsingClassLoader(original, classLoader).getClass();
+		assertTrue(Proxy.isProxyClass(cloneClass));
+		assertTrue(classLoader.loadClass(NonCommonJavaType.class.getName()).isAssignableFrom(cloneClass));
+		assertSame(cloneClass, buffering.cloneObjectUsingClassLoader(original, classLoader).getClass());
+	}
+
+	private static final class SerializableInvocationHandler implements InvocationHandler, Serializable {
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			return null;
+		}
+	}
+}